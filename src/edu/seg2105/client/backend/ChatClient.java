@@ -1,10 +1,34 @@
 package edu.seg2105.client.backend;
 
 import edu.seg2105.client.common.ChatIF;
+import edu.seg2105.client.common.ChatMessage;
+import edu.seg2105.client.common.CommandLine;
+import edu.seg2105.client.common.CommandRegistry;
+import edu.seg2105.client.common.MessageCodec;
+import edu.seg2105.client.common.MessageCodecs;
+import edu.seg2105.client.common.MessageType;
+import edu.seg2105.client.common.TlsTunnel;
 import ocsf.client.AbstractClient;
 
+import javax.net.ssl.SSLContext;
 import java.io.IOException;
-import java.util.Scanner;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The ChatClient class extends AbstractClient to provide the client-side logic of a chat application.
@@ -19,14 +43,51 @@ import java.util.Scanner;
  * - #login: Connects to the server
  * - #gethost: Displays the current host
  * - #getport: Displays the current port
+ * - #whisper [loginId] [message]: Sends a private message to one logged-in user
+ * - #join [channel]: Joins a channel and makes it the current channel
+ * - #leave [channel]: Leaves a channel, by default the current one
+ * - #channel [channel]: Switches the current channel, or shows the joined channels
+ * - #who: Shows the users logged in on the server, from the roster the server keeps the client updated with
+ * Chat messages are displayed prefixed with the [channel] they were sent to.
+ * If the connection is lost, the client reconnects with jittered exponential backoff, logs in again to the
+ * channels it was in and is sent the messages it missed, as far as the server still has them; it does not
+ * reconnect after the server has rejected it with #rejected, e.g. for a duplicate login ID or flooding.
+ * With TLS enabled, the connection goes through a local TlsTunnel and the host and port commands refer to
+ * the server's TLS endpoint.
  *
  * @author Onur Onel
  * oonel101@uottawa.ca
  */
 public class ChatClient extends AbstractClient {
+    private static final long RECONNECT_BASE_DELAY = 250;
+    private static final long RECONNECT_MAX_DELAY = 30_000;
 
     ChatIF clientUI;
     String loginId;
+    volatile MessageCodec codec = MessageCodecs.LEGACY;
+    private final CommandRegistry<ChatIF> commands = new CommandRegistry<>();
+    private final CommandRegistry<ChatIF> serverCommands = new CommandRegistry<>();
+    private final Object writeLock = new Object();
+    private final AtomicLong nextSequence = new AtomicLong();
+    private final Queue<PendingSend> unacknowledged = new ConcurrentLinkedQueue<>();
+    private volatile boolean acknowledgementsRequested;
+    private volatile boolean compressionRequested = true;
+    private volatile boolean acknowledged;
+    private ExecutorService writer;
+    private volatile boolean autoReconnect = true;
+    private volatile boolean rejected;
+    private volatile boolean reconnecting;
+    private final AtomicInteger reconnectAttempts = new AtomicInteger();
+    private ScheduledExecutorService reconnector;
+    private volatile long serverEpoch;
+    private volatile long lastSequence;
+    private volatile long lastReceived;
+    private final AtomicInteger connectionCount = new AtomicInteger();
+    private final List<String> channels = new ArrayList<>();
+    private boolean channelsKnown;
+    private TlsTunnel tunnel;
+    private final Set<String> roster = new TreeSet<>();
+    private long rosterVersion = -1;
 
     /**
      * Constructs a new ChatClient that connects to a specified host and port.
@@ -41,15 +102,193 @@ public class ChatClient extends AbstractClient {
         super(host, port);
         this.loginId = loginId;
         this.clientUI = clientUI;
+        registerCommands();
     }
 
     /**
      * Handles messages received from the server and displays them on the client UI.
+     * Protocol commands from the server, such as the #codec acknowledgement that switches outgoing messages
+     * to the negotiated codec, are handled here and not displayed.
+     * The highest sequence number seen is remembered so a reconnect can resume after it; the server delivers
+     * in sequence order, so a sequenced message at or below it is a repeat from a catch-up and is dropped.
      *
      * @param message The message received from the server.
      */
     public void handleMessageFromServer(Object message) {
-        clientUI.display(message.toString());
+        lastReceived = System.nanoTime();
+        ChatMessage decoded;
+        try {
+            decoded = MessageCodecs.decode(message, codec);
+            if (decoded.getSequence() > 0) {
+                if (decoded.getSequence() <= lastSequence) {
+                    return;
+                }
+                lastSequence = decoded.getSequence();
+            }
+            if (decoded.getType() == MessageType.COMMAND && serverCommands.dispatch(clientUI, decoded.getText())) {
+                return;
+            }
+        } catch (IllegalArgumentException | IOException exception) {
+            clientUI.display("Malformed message from server: " + exception.getMessage());
+            return;
+        }
+        clientUI.display(decoded.getText());
+    }
+
+    /**
+     * Sends a message to the server using the codec negotiated for the current connection.
+     * Writes from the UI thread and the asynchronous writer are serialized on one lock.
+     *
+     * @param message The message to send.
+     * @throws IOException If the message cannot be written to the connection.
+     */
+    private void send(ChatMessage message) throws IOException {
+        synchronized (writeLock) {
+            sendToServer(codec.encode(message));
+        }
+    }
+
+    /**
+     * Requests, from the next login on, that the server acknowledge every message sent with sendAsync.
+     * Servers that do not support acknowledgements ignore the request, and futures then complete on write.
+     *
+     * @param enabled True to request acknowledgements.
+     */
+    public void setAcknowledgements(boolean enabled) {
+        this.acknowledgementsRequested = enabled;
+    }
+
+    /**
+     * Routes the connection, from the next login on, over TLS through a local tunnel to the current host and port,
+     * which must be a server's TLS endpoint. Reconnects resume the TLS session cached by the context.
+     *
+     * @param context The context holding the trusted certificates.
+     * @throws IOException If the tunnel cannot be started.
+     */
+    public void enableTls(SSLContext context) throws IOException {
+        if (tunnel == null) {
+            tunnel = TlsTunnel.client(context, getHost(), getPort());
+            setHost(InetAddress.getLoopbackAddress().getHostAddress());
+            setPort(tunnel.getLocalPort());
+        }
+    }
+
+    private String remoteHost() {
+        return tunnel == null ? getHost() : tunnel.getTargetHost();
+    }
+
+    private int remotePort() {
+        return tunnel == null ? getPort() : tunnel.getTargetPort();
+    }
+
+    /**
+     * Sets whether, from the next login on, the client offers compression of large messages.
+     * The server may decline, and messages below the compression threshold are never compressed.
+     *
+     * @param enabled True to offer compression.
+     */
+    public void setCompression(boolean enabled) {
+        this.compressionRequested = enabled;
+    }
+
+    /**
+     * Sets whether a lost connection is re-established automatically. Connections the server closes after
+     * rejecting the client with #rejected are never re-established.
+     *
+     * @param enabled True to reconnect automatically; false to terminate when the connection is lost.
+     */
+    public void setAutoReconnect(boolean enabled) {
+        this.autoReconnect = enabled;
+    }
+
+    /**
+     * Queues a chat message for sending without blocking the caller.
+     * Messages are written in call order by a single writer thread, so many can be in flight at once.
+     * The returned future completes with the message's sequence number once the server has acknowledged it,
+     * or once it has been written if acknowledgements are not in effect. It completes exceptionally if the
+     * message cannot be written, the server refuses it or the connection closes first; unlike handleMessageFromClientUI this never
+     * terminates the program.
+     *
+     * @param message The chat message to send.
+     * @return A future for the message's sequence number.
+     */
+    public CompletableFuture<Long> sendAsync(String message) {
+        PendingSend pending = new PendingSend(nextSequence.incrementAndGet());
+        writer().execute(() -> {
+            if (!isConnected()) {
+                pending.future.completeExceptionally(new IOException("Not connected"));
+                return;
+            }
+            try {
+                if (acknowledged) {
+                    unacknowledged.add(pending);
+                    send(new ChatMessage(MessageType.COMMAND, "#send " + pending.sequence + " " + message));
+                } else {
+                    send(new ChatMessage(MessageType.CHAT, message));
+                    pending.future.complete(pending.sequence);
+                }
+            } catch (IOException exception) {
+                unacknowledged.remove(pending);
+                pending.future.completeExceptionally(exception);
+            }
+        });
+        return pending.future;
+    }
+
+    private synchronized ExecutorService writer() {
+        if (writer == null) {
+            writer = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "chat-client-writer");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return writer;
+    }
+
+    /**
+     * Completes every outstanding acknowledged send up to and including a sequence number.
+     * The server acknowledges in the order it receives messages, so the outstanding sends form a FIFO.
+     *
+     * @param sequence The sequence number acknowledged by the server.
+     */
+    private void acknowledge(long sequence) {
+        PendingSend pending;
+        while ((pending = unacknowledged.peek()) != null && pending.sequence <= sequence) {
+            unacknowledged.poll();
+            pending.future.complete(pending.sequence);
+        }
+    }
+
+    /**
+     * Fails the outstanding acknowledged send with a sequence number the server did not publish, so a later
+     * #ack does not complete it as delivered.
+     *
+     * @param sequence The sequence number refused by the server.
+     * @param reason   The reason given by the server.
+     */
+    private void refuse(long sequence, String reason) {
+        for (Iterator<PendingSend> pending = unacknowledged.iterator(); pending.hasNext(); ) {
+            PendingSend send = pending.next();
+            if (send.sequence == sequence) {
+                pending.remove();
+                send.future.completeExceptionally(new IOException("Message not sent: " + reason));
+                return;
+            }
+        }
+    }
+
+    /**
+     * Fails every outstanding acknowledged send, e.g. because the connection was closed.
+     *
+     * @param reason Why the sends failed.
+     */
+    private void failUnacknowledged(String reason) {
+        acknowledged = false;
+        PendingSend pending;
+        while ((pending = unacknowledged.poll()) != null) {
+            pending.future.completeExceptionally(new IOException(reason));
+        }
     }
 
     /**
@@ -66,7 +305,7 @@ public class ChatClient extends AbstractClient {
                 if (!isConnected()) {
                     openConnection();
                 }
-                sendToServer(message);
+                send(new ChatMessage(MessageType.CHAT, message));
             }
         } catch (IOException exception) {
             clientUI.display("Error sending message: " + exception.getMessage());
@@ -81,79 +320,268 @@ public class ChatClient extends AbstractClient {
      * @throws IOException If an I/O error occurs while executing a command.
      */
     private void handleCommand(String command) throws IOException {
-        Scanner input = new Scanner(command.trim());
-        String cmd = input.next();
+        if (!commands.dispatch(clientUI, command.trim())) {
+            clientUI.display("Unknown command: " + command);
+        }
+    }
 
-        if (cmd.equals("#quit")) {
+    /**
+     * Registers the user commands handled by handleCommand and the protocol commands sent by the server.
+     */
+    private void registerCommands() {
+        serverCommands.register("#codec", (ui, args) -> codec = MessageCodecs.forName(args.next()));
+        serverCommands.register("#ping", (ui, args) -> send(new ChatMessage(MessageType.COMMAND, "#pong")));
+        serverCommands.register("#pong", (ui, args) -> {
+        });
+        serverCommands.register("#heartbeat", (ui, args) -> {
+            try {
+                long interval = Long.parseLong(args.next());
+                long timeout = Long.parseLong(args.next());
+                if (interval <= 0 || timeout <= 0) {
+                    throw new NumberFormatException();
+                }
+                int connection = connectionCount.get();
+                reconnector().schedule(() -> checkServer(connection, interval, timeout), interval, TimeUnit.MILLISECONDS);
+            } catch (NumberFormatException exception) {
+                ui.display("Malformed heartbeat settings: " + args.line());
+            }
+        });
+        serverCommands.register("#seq", (ui, args) -> resumePoint(args));
+        serverCommands.register("#roster", (ui, args) -> updateRoster(args, true));
+        serverCommands.register("#presence", (ui, args) -> updateRoster(args, false));
+        serverCommands.register("#acks", (ui, args) -> acknowledged = "on".equals(args.next()));
+        serverCommands.register("#rejected", (ui, args) -> rejected = true);
+        serverCommands.register("#ack", (ui, args) -> {
+            try {
+                acknowledge(Long.parseLong(args.next()));
+            } catch (NumberFormatException exception) {
+                ui.display("Malformed acknowledgement: " + args.line());
+            }
+        });
+        serverCommands.register("#nack", (ui, args) -> {
+            try {
+                refuse(Long.parseLong(args.next()), args.rest());
+            } catch (NumberFormatException exception) {
+                ui.display("Malformed acknowledgement: " + args.line());
+            }
+        });
+
+        commands.register("#quit", (ui, args) -> {
             quit();
-            clientUI.display("Client logged off.");
-        } else if (cmd.equals("#logoff")) {
+            ui.display("Client logged off.");
+        });
+        commands.register("#logoff", (ui, args) -> {
             if (isConnected()) {
                 closeConnection();
+            } else if (reconnecting) {
+                reconnecting = false;
+                ui.display("Stopped reconnecting.");
             } else {
-                clientUI.display("Already logged off.");
+                ui.display("Already logged off.");
             }
-
-        } else if (cmd.equals("#sethost")) {
+        });
+        commands.register("#sethost", this::setHostCommand);
+        commands.register("#setport", this::setPortCommand);
+        commands.register("#login", (ui, args) -> {
             if (isConnected()) {
-                clientUI.display("You must log off before changing host.");
+                ui.display("Already connected. Use #logoff to disconnect first.");
             } else {
-                if (!input.hasNext()) {
-                    clientUI.display("Usage: #sethost <host>");
-                } else {
-                    String host = input.next();
-                    setHost(host);
-                    clientUI.display("Host set to: " + getHost());
+                try {
+                    openConnection();
+                    ui.display("Connected to server.");
+                } catch (IOException exception) {
+                    ui.display("Failed to connect: " + exception.getMessage());
                 }
             }
-
-        } else if (cmd.equals("#setport")) {
-            if (isConnected()) {
-                clientUI.display("You must log off before changing port.");
-            } else {
-                if (!input.hasNext()) {
-                    clientUI.display("Usage: #setport <port>");
+        });
+        commands.register("#whisper", this::forwardCommand);
+        commands.register("#join", this::forwardCommand);
+        commands.register("#leave", this::forwardCommand);
+        commands.register("#channel", this::forwardCommand);
+        commands.register("#who", (ui, args) -> {
+            synchronized (roster) {
+                if (rosterVersion < 0) {
+                    ui.display("The list of online users is not available.");
                 } else {
-                    String portStr = input.next();
-                    try {
-                        int port = Integer.parseInt(portStr);
-                        setPort(port);
-                        clientUI.display("Port set to: " + getPort());
-                    } catch (NumberFormatException exception) {
-                        clientUI.display("Port must be a number. Usage: #setport <port>");
-                    }
+                    ui.display("Online (" + roster.size() + "): " + String.join(", ", roster));
                 }
             }
-        } else if (cmd.equals("#login")) {
-            if (isConnected()) {
-                clientUI.display("Already connected. Use #logoff to disconnect first.");
-            } else {
-                try {
-                    openConnection();
-                    clientUI.display("Connected to server.");
-                } catch (IOException exception) {
-                    clientUI.display("Failed to connect: " + exception.getMessage());
+        });
+        commands.register("#gethost", (ui, args) -> ui.display("Current host: " + remoteHost()));
+        commands.register("#getport", (ui, args) -> ui.display("Current port: " + remotePort()));
+    }
+
+    /**
+     * Forwards a command that is executed by the server, such as #whisper or #join.
+     *
+     * @param ui   The user interface to report errors to.
+     * @param args The command line.
+     * @throws IOException If the command cannot be sent.
+     */
+    private void forwardCommand(ChatIF ui, CommandLine args) throws IOException {
+        if (!isConnected()) {
+            ui.display("You must be logged in to use " + args.token() + ".");
+        } else {
+            send(new ChatMessage(MessageType.COMMAND, args.line()));
+            trackChannel(args);
+        }
+    }
+
+    /**
+     * Mirrors the effect of a forwarded #join, #leave or #channel on the channels the client is in,
+     * so they can be joined again after a reconnect. The current channel is kept first.
+     *
+     * @param args The forwarded command line, positioned after the command name.
+     */
+    private void trackChannel(CommandLine args) {
+        String command = args.token();
+        String channel = args.next();
+        synchronized (channels) {
+            if (!channelsKnown) {
+                return;
+            }
+            if (command.equals("#join") && channel != null) {
+                channels.remove(channel);
+                channels.add(0, channel);
+            } else if (command.equals("#leave")) {
+                channels.remove(channel != null ? channel : channels.isEmpty() ? null : channels.get(0));
+            } else if (command.equals("#channel") && channel != null && channels.remove(channel)) {
+                channels.add(0, channel);
+            }
+        }
+    }
+
+    /**
+     * Applies a roster snapshot, #roster [version] [loginId] ..., or a roster delta,
+     * #presence [version] +loginId -loginId .... Deltas that arrive before the snapshot,
+     * or whose changes the snapshot already includes, are ignored.
+     *
+     * @param args     The command arguments.
+     * @param snapshot True for #roster, false for #presence.
+     */
+    private void updateRoster(CommandLine args, boolean snapshot) {
+        long version;
+        try {
+            version = Long.parseLong(args.next());
+        } catch (NumberFormatException exception) {
+            clientUI.display("Malformed roster update: " + args.line());
+            return;
+        }
+        synchronized (roster) {
+            if (snapshot) {
+                roster.clear();
+            } else if (rosterVersion < 0 || version <= rosterVersion) {
+                return;
+            }
+            rosterVersion = version;
+            while (args.hasNext()) {
+                String entry = args.next();
+                if (snapshot) {
+                    roster.add(entry);
+                } else if (entry.length() > 1 && entry.charAt(0) == '+') {
+                    roster.add(entry.substring(1));
+                } else if (entry.length() > 1 && entry.charAt(0) == '-') {
+                    roster.remove(entry.substring(1));
                 }
             }
-        } else if (cmd.equals("#gethost")) {
-            clientUI.display("Current host: " + getHost());
+        }
+    }
 
-        } else if (cmd.equals("#getport")) {
-            clientUI.display("Current port: " + getPort());
+    /**
+     * Handles #seq [epoch] [sequence] [channels], with which the server reports after login the server run,
+     * the last sequence number this client has been caught up to and its channels, current one first.
+     *
+     * @param args The command arguments.
+     */
+    private void resumePoint(CommandLine args) {
+        try {
+            long epoch = Long.parseLong(args.next());
+            long sequence = Long.parseLong(args.next());
+            if (epoch != serverEpoch || sequence > lastSequence) {
+                lastSequence = sequence;
+            }
+            serverEpoch = epoch;
+        } catch (NumberFormatException exception) {
+            clientUI.display("Malformed sequence report: " + args.line());
+            return;
+        }
+        String joined = args.next();
+        synchronized (channels) {
+            channels.clear();
+            if (joined != null) {
+                channels.addAll(Arrays.asList(joined.split(",")));
+            }
+            channelsKnown = true;
+        }
+    }
 
+    private void setHostCommand(ChatIF ui, CommandLine args) {
+        if (isConnected()) {
+            ui.display("You must log off before changing host.");
+        } else if (!args.hasNext()) {
+            ui.display("Usage: #sethost <host>");
         } else {
-            clientUI.display("Unknown command: " + command);
+            String host = args.next();
+            if (tunnel == null) {
+                setHost(host);
+            } else {
+                tunnel.setTarget(host, remotePort());
+            }
+            ui.display("Host set to: " + remoteHost());
+        }
+    }
+
+    private void setPortCommand(ChatIF ui, CommandLine args) {
+        if (isConnected()) {
+            ui.display("You must log off before changing port.");
+        } else if (!args.hasNext()) {
+            ui.display("Usage: #setport <port>");
+        } else {
+            String portStr = args.next();
+            try {
+                int port = Integer.parseInt(portStr);
+                if (tunnel == null) {
+                    setPort(port);
+                } else {
+                    tunnel.setTarget(remoteHost(), port);
+                }
+                ui.display("Port set to: " + remotePort());
+            } catch (NumberFormatException exception) {
+                ui.display("Port must be a number. Usage: #setport <port>");
+            }
         }
     }
 
     /**
      * Invoked automatically when a connection to the server is successfully established.
-     * Sends the login ID to the server for registration.
+     * Sends the login ID to the server for registration, offering the framed codec, with compression if enabled,
+     * heartbeats and presence updates.
+     * The login also asks to resume after the last message received from the server, if any, in the channels
+     * the client was in. The login itself always travels in the legacy format so older servers can read it.
      */
     @Override
     protected void connectionEstablished() {
+        connectionCount.incrementAndGet();
+        lastReceived = System.nanoTime();
+        codec = MessageCodecs.LEGACY;
+        acknowledged = false;
+        rejected = false;
+        reconnecting = false;
+        reconnectAttempts.set(0);
+        synchronized (roster) {
+            roster.clear();
+            rosterVersion = -1;
+        }
+        String options = " codec=" + (compressionRequested ? MessageCodecs.DEFLATE.name() + "," : "")
+                + MessageCodecs.FRAME.name() + (acknowledgementsRequested ? " acks=on" : "")
+                + " heartbeat=on presence=on resume=" + serverEpoch + "." + lastSequence;
+        synchronized (channels) {
+            if (channelsKnown) {
+                options += " channels=" + String.join(",", channels);
+            }
+        }
         try {
-            sendToServer("#login " + loginId);
+            send(new ChatMessage(MessageType.LOGIN, loginId + options));
         } catch (IOException exception) {
             clientUI.display("Failed to send login id to server.");
             quit();
@@ -166,19 +594,105 @@ public class ChatClient extends AbstractClient {
      */
     @Override
     protected void connectionClosed() {
+        failUnacknowledged("Connection closed");
         clientUI.display("Connection closed.");
     }
 
     /**
      * Invoked when an unexpected connection exception occurs.
-     * Displays an error message and terminates the client.
+     * Starts reconnecting in the background, or displays an error message and terminates the client
+     * if automatic reconnection is disabled. A client the server rejected stays logged off,
+     * since logging in again would be rejected the same way.
      *
      * @param exception The exception that caused the disconnection.
      */
     @Override
     protected void connectionException(Exception exception) {
-        clientUI.display("Server has been shut down.");
-        quit();
+        connectionLost();
+    }
+
+    /**
+     * Checks, on the reconnect thread, that the server negotiated heartbeats with is still there. If nothing has
+     * been received for a heartbeat interval the client sends #ping, which the server answers with #pong; if
+     * nothing has been received for the timeout the connection is given up as lost, which starts reconnecting.
+     * This catches half-open connections, which never report an error.
+     *
+     * @param connection The connection the check was started for; the check stops once it is replaced.
+     * @param interval   The heartbeat interval in milliseconds.
+     * @param timeout    The time without traffic after which the connection is lost, in milliseconds.
+     */
+    private void checkServer(int connection, long interval, long timeout) {
+        if (connection != connectionCount.get() || !isConnected()) {
+            return;
+        }
+        long idle = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastReceived);
+        if (idle >= timeout) {
+            clientUI.display("Server stopped responding.");
+            try {
+                closeConnection();
+            } catch (IOException ignored) {
+            }
+            connectionLost();
+            return;
+        }
+        if (idle >= interval) {
+            try {
+                send(new ChatMessage(MessageType.COMMAND, "#ping"));
+            } catch (IOException ignored) {
+            }
+        }
+        long next = Math.min(interval, timeout - idle);
+        reconnector().schedule(() -> checkServer(connection, interval, timeout), next, TimeUnit.MILLISECONDS);
+    }
+
+    private void connectionLost() {
+        failUnacknowledged("Connection lost");
+        if (rejected) {
+            clientUI.display("Disconnected by the server. Use #login to connect again.");
+            return;
+        }
+        if (!autoReconnect) {
+            clientUI.display("Server has been shut down.");
+            quit();
+            return;
+        }
+        clientUI.display("Connection to server lost. Reconnecting...");
+        reconnecting = true;
+        scheduleReconnect();
+    }
+
+    /**
+     * Schedules the next reconnection attempt. The delay doubles with every failed attempt up to a maximum,
+     * and is drawn at random from the upper half of that range so that clients dropped together by a server
+     * restart do not all come back at the same moment.
+     */
+    private void scheduleReconnect() {
+        int attempt = Math.min(reconnectAttempts.getAndIncrement(), 20);
+        long ceiling = Math.min(RECONNECT_MAX_DELAY, RECONNECT_BASE_DELAY << attempt);
+        long delay = ThreadLocalRandom.current().nextLong(ceiling / 2, ceiling + 1);
+        reconnector().schedule(this::reconnect, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void reconnect() {
+        if (!reconnecting || isConnected()) {
+            return;
+        }
+        try {
+            openConnection();
+        } catch (IOException exception) {
+            scheduleReconnect();
+        }
+    }
+
+    private synchronized ScheduledExecutorService reconnector() {
+        if (reconnector == null) {
+            reconnector = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "chat-client-reconnect");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return reconnector;
     }
 
     /**
@@ -191,4 +705,16 @@ public class ChatClient extends AbstractClient {
         }
         System.exit(0);
     }
+
+    /**
+     * A message sent with sendAsync whose future has not completed yet.
+     */
+    private static final class PendingSend {
+        final long sequence;
+        final CompletableFuture<Long> future = new CompletableFuture<>();
+
+        PendingSend(long sequence) {
+            this.sequence = sequence;
+        }
+    }
 }
@@ -0,0 +1,143 @@
+package edu.seg2105.client.common;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The AsyncDisplay class is a ChatIF that takes console output off the network threads.
+ * display() only queues the line; a dedicated thread writes queued lines in batches through a buffered writer
+ * and flushes at most once per flush interval while output keeps arriving, and as soon as the queue runs dry.
+ * If the terminal falls so far behind that the queue fills up, new lines are dropped and replaced by a single
+ * summary of how many were lost. Lines that are written keep the order in which display() was called.
+ * Queued output is flushed when the JVM exits.
+ *
+ * @author Onur Onel
+ * oonel101@uottawa.ca
+ */
+public class AsyncDisplay implements ChatIF {
+    public static final long DEFAULT_FLUSH_INTERVAL = 50;
+    public static final int DEFAULT_CAPACITY = 8192;
+
+    private final String prefix;
+    private final long flushInterval;
+    private final BlockingQueue<String> queue;
+    private final AtomicLong dropped = new AtomicLong();
+    private final Writer out;
+    private final Thread writer;
+    private volatile boolean closed;
+
+    /**
+     * Constructs an AsyncDisplay writing to an output stream with the default flush interval and capacity.
+     *
+     * @param out    The stream to write to, typically System.out.
+     * @param prefix The text written before every line.
+     */
+    public AsyncDisplay(OutputStream out, String prefix) {
+        this(out, prefix, DEFAULT_FLUSH_INTERVAL, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructs an AsyncDisplay writing to an output stream.
+     *
+     * @param out           The stream to write to, typically System.out.
+     * @param prefix        The text written before every line.
+     * @param flushInterval The longest time in milliseconds written lines may sit in the buffer while output keeps arriving.
+     * @param capacity      The number of lines that may wait to be written before new lines are dropped.
+     */
+    public AsyncDisplay(OutputStream out, String prefix, long flushInterval, int capacity) {
+        this.prefix = prefix;
+        this.flushInterval = flushInterval;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.out = new BufferedWriter(new OutputStreamWriter(out, Charset.defaultCharset()), 1 << 16);
+        this.writer = new Thread(this::writeLoop, "display-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+    }
+
+    /**
+     * Queues a line for display without blocking.
+     *
+     * @param message The line to display.
+     */
+    @Override
+    public void display(String message) {
+        if (closed || !queue.offer(message)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Writes out everything already queued and stops the writer thread.
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        writer.interrupt();
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeLoop() {
+        List<String> batch = new ArrayList<>();
+        long lastFlush = System.currentTimeMillis();
+        try {
+            while (!closed) {
+                String first;
+                try {
+                    first = queue.poll(flushInterval, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    break;
+                }
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch);
+                    write(batch);
+                }
+                long now = System.currentTimeMillis();
+                if (queue.isEmpty() || now - lastFlush >= flushInterval) {
+                    out.flush();
+                    lastFlush = now;
+                }
+            }
+            queue.drainTo(batch);
+            write(batch);
+            out.flush();
+        } catch (IOException e) {
+            closed = true;
+        }
+    }
+
+    /**
+     * Writes a batch of lines, followed by a summary of any lines dropped since the last batch.
+     * Lines are only dropped while the queue is full, so they were displayed after everything in the batch.
+     */
+    private void write(List<String> batch) throws IOException {
+        for (String line : batch) {
+            out.write(prefix);
+            out.write(line);
+            out.write(System.lineSeparator());
+        }
+        batch.clear();
+        long lost = dropped.getAndSet(0);
+        if (lost > 0) {
+            out.write(prefix + "... " + lost + " lines not displayed (output fell behind)");
+            out.write(System.lineSeparator());
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package edu.seg2105.client.common;
+
+/**
+ * The ChatMessage class is the immutable, codec-independent form of a message travelling between
+ * ChatClient and EchoServer. For LOGIN messages the text holds the login arguments
+ * (the login ID followed by optional key=value options); for all other types it holds the full line.
+ * Messages published by the server also carry the server's sequence number, so a reconnecting client can ask
+ * for only the messages it missed; a sequence of 0 means none.
+ *
+ * @author Onur Onel
+ * oonel101@uottawa.ca
+ */
+public final class ChatMessage {
+    private final MessageType type;
+    private final String text;
+    private final long sequence;
+
+    /**
+     * Constructs a message of the given type without a sequence number.
+     *
+     * @param type The kind of message.
+     * @param text The message text.
+     */
+    public ChatMessage(MessageType type, String text) {
+        this(type, text, 0);
+    }
+
+    /**
+     * Constructs a message of the given type carrying a server sequence number.
+     *
+     * @param type     The kind of message.
+     * @param text     The message text.
+     * @param sequence The server sequence number, or 0 for none.
+     */
+    public ChatMessage(MessageType type, String text, long sequence) {
+        this.type = type;
+        this.text = text;
+        this.sequence = sequence;
+    }
+
+    /**
+     * Returns the kind of this message.
+     *
+     * @return The message type.
+     */
+    public MessageType getType() {
+        return type;
+    }
+
+    /**
+     * Returns the text carried by this message.
+     *
+     * @return The message text.
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * Returns the server sequence number of this message.
+     *
+     * @return The sequence number, or 0 if the message has none.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
@@ -0,0 +1,25 @@
+package edu.seg2105.client.common;
+
+import java.io.IOException;
+
+/**
+ * This interface is implemented by the handler of a single #command registered with a CommandRegistry.
+ * The context is whatever the registry's owner passes along with each command, such as the UI to reply to
+ * or the connection the command came from.
+ *
+ * @param <C> The type of the context passed to the handler.
+ * @author Onur Onel
+ * oonel101@uottawa.ca
+ */
+@FunctionalInterface
+public interface CommandHandler<C> {
+
+    /**
+     * Executes the command.
+     *
+     * @param context The context the command was issued in.
+     * @param args    The command line, positioned after the command name.
+     * @throws IOException If an I/O error occurs while executing the command.
+     */
+    void handle(C context, CommandLine args) throws IOException;
+}
@@ -0,0 +1,108 @@
+package edu.seg2105.client.common;
+
+/**
+ * The CommandLine class walks the whitespace-separated tokens of a line in place.
+ * Unlike Scanner it keeps only offsets into the original String, so skipping or matching tokens allocates nothing;
+ * a String is created only when the caller asks for a token's value.
+ *
+ * @author Onur Onel
+ * oonel101@uottawa.ca
+ */
+public final class CommandLine {
+    private final String line;
+    private int position;
+    private int tokenStart;
+    private int tokenEnd;
+
+    /**
+     * Constructs a CommandLine positioned before the first token of a line.
+     *
+     * @param line The line to tokenize.
+     */
+    public CommandLine(String line) {
+        this.line = line;
+    }
+
+    /**
+     * Returns the line being tokenized.
+     *
+     * @return The original line.
+     */
+    public String line() {
+        return line;
+    }
+
+    /**
+     * Tells whether another token remains.
+     *
+     * @return True if next() would return a token.
+     */
+    public boolean hasNext() {
+        return skipWhitespace(position) < line.length();
+    }
+
+    /**
+     * Advances to the next token without creating a String for it.
+     *
+     * @return False if no token remains.
+     */
+    public boolean advance() {
+        int start = skipWhitespace(position);
+        if (start >= line.length()) {
+            position = start;
+            return false;
+        }
+        int end = start;
+        while (end < line.length() && !Character.isWhitespace(line.charAt(end))) {
+            end++;
+        }
+        tokenStart = start;
+        tokenEnd = end;
+        position = end;
+        return true;
+    }
+
+    /**
+     * Returns the next token.
+     *
+     * @return The next token, or null if none remains.
+     */
+    public String next() {
+        return advance() ? token() : null;
+    }
+
+    /**
+     * Returns the remainder of the line after the current position, trimmed.
+     *
+     * @return The remaining text, possibly empty.
+     */
+    public String rest() {
+        int start = skipWhitespace(position);
+        position = line.length();
+        return line.substring(start).trim();
+    }
+
+    /**
+     * Returns the token most recently reached by advance() or next().
+     *
+     * @return The current token.
+     */
+    public String token() {
+        return line.substring(tokenStart, tokenEnd);
+    }
+
+    int tokenStart() {
+        return tokenStart;
+    }
+
+    int tokenEnd() {
+        return tokenEnd;
+    }
+
+    private int skipWhitespace(int from) {
+        while (from < line.length() && Character.isWhitespace(line.charAt(from))) {
+            from++;
+        }
+        return from;
+    }
+}
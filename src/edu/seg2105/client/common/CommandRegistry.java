@@ -0,0 +1,107 @@
+package edu.seg2105.client.common;
+
+import java.io.IOException;
+
+/**
+ * The CommandRegistry class maps #command names to their handlers and dispatches command lines to them.
+ * Handlers live in an open-addressed table keyed by the hash of the command name, and lookups hash and compare
+ * the first token directly inside the incoming line, so dispatching a command allocates no Strings.
+ * Registration copies the table, which keeps lookups lock-free; it is meant to happen at startup.
+ *
+ * @param <C> The type of the context passed to every handler.
+ * @author Onur Onel
+ * oonel101@uottawa.ca
+ */
+public final class CommandRegistry<C> {
+    private volatile Table<C> table = new Table<>(16);
+
+    /**
+     * Registers a handler for a command, replacing any earlier handler of the same name.
+     *
+     * @param name    The command name, including the leading '#'.
+     * @param handler The handler to run.
+     */
+    public synchronized void register(String name, CommandHandler<C> handler) {
+        Table<C> current = table;
+        int capacity = current.names.length;
+        if ((current.size + 1) * 2 > capacity) {
+            capacity *= 2;
+        }
+        Table<C> next = new Table<>(capacity);
+        for (int i = 0; i < current.names.length; i++) {
+            if (current.names[i] != null && !current.names[i].equals(name)) {
+                next.put(current.names[i], current.handlers[i]);
+            }
+        }
+        next.put(name, handler);
+        table = next;
+    }
+
+    /**
+     * Runs the handler registered for the first token of a line.
+     *
+     * @param context The context handed to the handler.
+     * @param line    The command line, e.g. "#setport 5556".
+     * @return False if no handler is registered for the command.
+     * @throws IOException If the handler fails with an I/O error.
+     */
+    public boolean dispatch(C context, String line) throws IOException {
+        CommandLine commandLine = new CommandLine(line);
+        if (!commandLine.advance()) {
+            return false;
+        }
+        CommandHandler<C> handler = table.lookup(commandLine);
+        if (handler == null) {
+            return false;
+        }
+        handler.handle(context, commandLine);
+        return true;
+    }
+
+    private static final class Table<C> {
+        final String[] names;
+        final CommandHandler<C>[] handlers;
+        int size;
+
+        @SuppressWarnings("unchecked")
+        Table(int capacity) {
+            names = new String[capacity];
+            handlers = (CommandHandler<C>[]) new CommandHandler<?>[capacity];
+        }
+
+        void put(String name, CommandHandler<C> handler) {
+            int mask = names.length - 1;
+            int slot = spread(name.hashCode()) & mask;
+            while (names[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            names[slot] = name;
+            handlers[slot] = handler;
+            size++;
+        }
+
+        CommandHandler<C> lookup(CommandLine commandLine) {
+            String line = commandLine.line();
+            int start = commandLine.tokenStart();
+            int length = commandLine.tokenEnd() - start;
+            int hash = 0;
+            for (int i = start; i < start + length; i++) {
+                hash = 31 * hash + line.charAt(i);
+            }
+            int mask = names.length - 1;
+            int slot = spread(hash) & mask;
+            String name;
+            while ((name = names[slot]) != null) {
+                if (name.length() == length && line.regionMatches(start, name, 0, length)) {
+                    return handlers[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            return null;
+        }
+
+        private static int spread(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package edu.seg2105.client.common;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The FrameCodec class encodes messages into compact byte arrays instead of serialized Strings.
+ * Each frame is laid out as a one-byte type tag, the payload length as an unsigned varint
+ * (seven bits per byte, low bits first) and the UTF-8 payload. If the message has a sequence number,
+ * the SEQUENCED bit is set in the tag and the sequence follows the tag as another varint.
+ * Legacy clients never see sequence numbers, since the legacy codec has nowhere to put them.
+ * A codec created with a compression threshold deflates payloads of at least that many bytes when that makes
+ * them smaller; it then sets the COMPRESSED bit and writes the inflated length as a varint before the payload length.
+ * Every instance decodes plain frames, but only a codec that compresses accepts compressed ones, so a peer that
+ * did not negotiate deflate cannot make the other side inflate anything.
+ *
+ * @author Onur Onel
+ * oonel101@uottawa.ca
+ */
+public final class FrameCodec implements MessageCodec {
+    private static final int SEQUENCED = 0x40;
+    private static final int COMPRESSED = 0x20;
+    private static final int MAX_INFLATED_LENGTH = 1 << 24;
+    private static final int MAX_DEFLATE_RATIO = 1032;
+    private static final int INFLATE_CHUNK = 8192;
+
+    private final String name;
+    private final int compressionThreshold;
+
+    /**
+     * Constructs a codec that never compresses.
+     */
+    public FrameCodec() {
+        this("frame", -1);
+    }
+
+    /**
+     * Constructs a codec that compresses payloads from a given size on.
+     *
+     * @param name                 The name used to negotiate the codec.
+     * @param compressionThreshold The smallest payload in bytes worth compressing, or -1 to never compress.
+     */
+    public FrameCodec(String name, int compressionThreshold) {
+        this.name = name;
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public Object encode(ChatMessage message) {
+        byte[] payload = message.getText().getBytes(StandardCharsets.UTF_8);
+        int inflatedLength = payload.length;
+        byte[] deflated = compressionThreshold >= 0 && payload.length >= compressionThreshold ? deflate(payload) : null;
+        if (deflated != null) {
+            payload = deflated;
+        }
+        long sequence = message.getSequence();
+        int header = 1 + (sequence > 0 ? varintSize(sequence) : 0) + (deflated != null ? varintSize(inflatedLength) : 0)
+                + varintSize(payload.length);
+        byte[] frame = new byte[header + payload.length];
+        frame[0] = (byte) (message.getType().tag() | (sequence > 0 ? SEQUENCED : 0) | (deflated != null ? COMPRESSED : 0));
+        int offset = 1;
+        if (sequence > 0) {
+            offset = putVarint(frame, offset, sequence);
+        }
+        if (deflated != null) {
+            offset = putVarint(frame, offset, inflatedLength);
+        }
+        offset = putVarint(frame, offset, payload.length);
+        System.arraycopy(payload, 0, frame, offset, payload.length);
+        return frame;
+    }
+
+    @Override
+    public ChatMessage decode(Object wire) {
+        if (!(wire instanceof byte[])) {
+            throw new IllegalArgumentException("Not a frame: " + wire);
+        }
+        byte[] frame = (byte[]) wire;
+        if (frame.length < 2) {
+            throw new IllegalArgumentException("Truncated frame header");
+        }
+        MessageType type = MessageType.fromTag((byte) (frame[0] & ~(SEQUENCED | COMPRESSED)));
+        int[] offset = {1};
+        long sequence = (frame[0] & SEQUENCED) != 0 ? getVarint(frame, offset) : 0;
+        if ((frame[0] & COMPRESSED) != 0 && compressionThreshold < 0) {
+            throw new IllegalArgumentException("Compressed frame without negotiated compression");
+        }
+        long inflatedLength = (frame[0] & COMPRESSED) != 0 ? getVarint(frame, offset) : -1;
+        long length = getVarint(frame, offset);
+        if (length != frame.length - offset[0]) {
+            throw new IllegalArgumentException("Frame length mismatch: " + length + " != " + (frame.length - offset[0]));
+        }
+        if (inflatedLength < 0) {
+            return new ChatMessage(type, new String(frame, offset[0], (int) length, StandardCharsets.UTF_8), sequence);
+        }
+        byte[] payload = inflate(frame, offset[0], (int) length, inflatedLength);
+        return new ChatMessage(type, new String(payload, StandardCharsets.UTF_8), sequence);
+    }
+
+    /**
+     * Compresses a payload with raw deflate at the fastest level.
+     *
+     * @param payload The bytes to compress.
+     * @return The compressed bytes, or null if they would not be smaller than the payload.
+     */
+    private static byte[] deflate(byte[] payload) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        try {
+            deflater.setInput(payload);
+            deflater.finish();
+            byte[] out = new byte[payload.length - 1];
+            int length = 0;
+            while (!deflater.finished() && length < out.length) {
+                int written = deflater.deflate(out, length, out.length - length);
+                if (written == 0) {
+                    break;
+                }
+                length += written;
+            }
+            return deflater.finished() ? Arrays.copyOf(out, length) : null;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Decompresses a raw deflate payload whose inflated length is known, refusing anything that inflates
+     * to a different length so a small frame cannot expand without bound.
+     * The declared length is also checked against what deflate can reach from the compressed length, and the
+     * output grows in chunks as data actually inflates, so a lying header does not allocate its declared size.
+     *
+     * @param frame          The frame holding the payload.
+     * @param offset         The offset of the payload.
+     * @param length         The compressed length.
+     * @param inflatedLength The declared inflated length.
+     * @return The inflated payload.
+     */
+    private static byte[] inflate(byte[] frame, int offset, int length, long inflatedLength) {
+        if (inflatedLength > MAX_INFLATED_LENGTH || inflatedLength > (long) length * MAX_DEFLATE_RATIO) {
+            throw new IllegalArgumentException("Compressed frame too large: " + inflatedLength);
+        }
+        // One byte of room beyond the declared length shows a payload that inflates to more than it claims.
+        byte[] out = new byte[(int) Math.min(inflatedLength + 1, INFLATE_CHUNK)];
+        int inflated = 0;
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(frame, offset, length);
+            while (!inflater.finished() && inflated <= inflatedLength) {
+                if (inflated == out.length) {
+                    out = Arrays.copyOf(out, (int) Math.min(inflatedLength + 1, 2L * out.length));
+                }
+                int written = inflater.inflate(out, inflated, out.length - inflated);
+                if (written == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflated += written;
+            }
+            if (inflated != inflatedLength || !inflater.finished()) {
+                throw new IllegalArgumentException("Compressed frame length mismatch");
+            }
+            return inflated == out.length ? out : Arrays.copyOf(out, inflated);
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Corrupt compressed frame: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static int putVarint(byte[] frame, int offset, long value) {
+        while ((value & ~0x7FL) != 0) {
+            frame[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        frame[offset++] = (byte) value;
+        return offset;
+    }
+
+    private static long getVarint(byte[] frame, int[] offset) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            if (offset[0] >= frame.length || shift > 63) {
+                throw new IllegalArgumentException("Malformed frame varint");
+            }
+            b = frame[offset[0]++];
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private static int varintSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+}
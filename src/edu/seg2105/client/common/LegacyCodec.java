@@ -0,0 +1,37 @@
+package edu.seg2105.client.common;
+
+/**
+ * The LegacyCodec class sends every message as a plain String, exactly as clients and servers did before
+ * codecs were negotiated. The message type is recovered from the text itself on decode.
+ *
+ * @author Onur Onel
+ * oonel101@uottawa.ca
+ */
+public final class LegacyCodec implements MessageCodec {
+    private static final String LOGIN = "#login";
+
+    @Override
+    public String name() {
+        return "legacy";
+    }
+
+    @Override
+    public Object encode(ChatMessage message) {
+        if (message.getType() == MessageType.LOGIN) {
+            return LOGIN + " " + message.getText();
+        }
+        return message.getText();
+    }
+
+    @Override
+    public ChatMessage decode(Object wire) {
+        String s = String.valueOf(wire).trim();
+        if (s.startsWith(LOGIN) && (s.length() == LOGIN.length() || Character.isWhitespace(s.charAt(LOGIN.length())))) {
+            return new ChatMessage(MessageType.LOGIN, s.substring(LOGIN.length()).trim());
+        }
+        if (s.startsWith("#")) {
+            return new ChatMessage(MessageType.COMMAND, s);
+        }
+        return new ChatMessage(MessageType.CHAT, s);
+    }
+}
@@ -0,0 +1,35 @@
+package edu.seg2105.client.common;
+
+/**
+ * This interface defines how a ChatMessage is turned into the object handed to the OCSF connection and back.
+ * Implementations must be stateless so a single instance can be shared by every connection.
+ *
+ * @author Onur Onel
+ * oonel101@uottawa.ca
+ */
+public interface MessageCodec {
+
+    /**
+     * Returns the name used to negotiate this codec during #login.
+     *
+     * @return The codec name.
+     */
+    String name();
+
+    /**
+     * Encodes a message into the object written to the connection.
+     *
+     * @param message The message to encode.
+     * @return The wire representation of the message.
+     */
+    Object encode(ChatMessage message);
+
+    /**
+     * Decodes an object read from the connection.
+     *
+     * @param wire The object received from the connection.
+     * @return The decoded message.
+     * @throws IllegalArgumentException If the object is not in this codec's format.
+     */
+    ChatMessage decode(Object wire);
+}
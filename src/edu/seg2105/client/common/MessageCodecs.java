@@ -0,0 +1,87 @@
+package edu.seg2105.client.common;
+
+/**
+ * The MessageCodecs class holds the shared codec instances and resolves them by name or by wire object.
+ * The legacy String codec is always available so peers that do not negotiate keep working.
+ * The deflate codec is the frame codec with compression of payloads from COMPRESSION_THRESHOLD bytes on.
+ *
+ * @author Onur Onel
+ * oonel101@uottawa.ca
+ */
+public final class MessageCodecs {
+    public static final int COMPRESSION_THRESHOLD = 256;
+    public static final MessageCodec LEGACY = new LegacyCodec();
+    public static final MessageCodec FRAME = new FrameCodec();
+    public static final MessageCodec DEFLATE = new FrameCodec("deflate", COMPRESSION_THRESHOLD);
+    private static final MessageCodec[] ALL = {LEGACY, FRAME, DEFLATE};
+
+    private MessageCodecs() {
+    }
+
+    /**
+     * Resolves a codec from the name offered during #login.
+     *
+     * @param name The codec name.
+     * @return The matching codec, or the legacy codec if the name is unknown.
+     */
+    public static MessageCodec forName(String name) {
+        for (MessageCodec codec : ALL) {
+            if (codec.name().equals(name)) {
+                return codec;
+            }
+        }
+        return LEGACY;
+    }
+
+    /**
+     * Returns the number of registered codecs.
+     *
+     * @return The codec count.
+     */
+    public static int count() {
+        return ALL.length;
+    }
+
+    /**
+     * Returns the stable position of a codec among the registered codecs, for use as an array index.
+     *
+     * @param codec The codec to look up.
+     * @return The index of the codec.
+     * @throws IllegalArgumentException If the codec is not registered.
+     */
+    public static int indexOf(MessageCodec codec) {
+        for (int i = 0; i < ALL.length; i++) {
+            if (ALL[i] == codec) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unregistered codec: " + codec.name());
+    }
+
+    /**
+     * Decodes an object received from a connection, choosing the codec from its wire form.
+     * Compressed frames are refused, since no compression was negotiated.
+     *
+     * @param wire The object received from the connection.
+     * @return The decoded message.
+     */
+    public static ChatMessage decode(Object wire) {
+        return decode(wire, FRAME);
+    }
+
+    /**
+     * Decodes an object received from a connection that negotiated a codec. Frames are decoded by that codec when
+     * it is a frame codec, so compressed frames are only accepted where compression was negotiated; Strings are
+     * always decoded as legacy messages.
+     *
+     * @param wire       The object received from the connection.
+     * @param negotiated The codec negotiated for the connection.
+     * @return The decoded message.
+     */
+    public static ChatMessage decode(Object wire, MessageCodec negotiated) {
+        if (wire instanceof byte[]) {
+            return (negotiated instanceof FrameCodec ? negotiated : FRAME).decode(wire);
+        }
+        return LEGACY.decode(wire);
+    }
+}
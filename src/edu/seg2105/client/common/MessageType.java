@@ -0,0 +1,52 @@
+package edu.seg2105.client.common;
+
+/**
+ * Enumerates the kinds of messages exchanged between ChatClient and EchoServer.
+ * Each type carries the one-byte tag used to identify it in the framed wire format.
+ *
+ * @author Onur Onel
+ * oonel101@uottawa.ca
+ */
+public enum MessageType {
+    LOGIN(1),
+    CHAT(2),
+    COMMAND(3),
+    NOTICE(4);
+
+    private static final MessageType[] BY_TAG = new MessageType[5];
+
+    static {
+        for (MessageType type : values()) {
+            BY_TAG[type.tag] = type;
+        }
+    }
+
+    private final byte tag;
+
+    MessageType(int tag) {
+        this.tag = (byte) tag;
+    }
+
+    /**
+     * Returns the tag that identifies this type on the wire.
+     *
+     * @return The one-byte wire tag.
+     */
+    public byte tag() {
+        return tag;
+    }
+
+    /**
+     * Looks up the message type identified by a wire tag.
+     *
+     * @param tag The tag read from the wire.
+     * @return The matching message type.
+     * @throws IllegalArgumentException If the tag is unknown.
+     */
+    public static MessageType fromTag(byte tag) {
+        if (tag <= 0 || tag >= BY_TAG.length || BY_TAG[tag] == null) {
+            throw new IllegalArgumentException("Unknown message tag: " + tag);
+        }
+        return BY_TAG[tag];
+    }
+}
@@ -0,0 +1,482 @@
+package edu.seg2105.client.common;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLParameters;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The TlsTunnel class carries OCSF connections over TLS without changing OCSF, which opens its own plain sockets.
+ * A server tunnel accepts TLS connections and relays them in plain text to an EchoServer on the same host;
+ * a client tunnel accepts plain connections on the loopback interface and relays them over TLS to a server tunnel.
+ * All connections are driven by SSLEngine on one selector thread, so a tunnel costs no thread per connection.
+ * The expensive handshake work the engine delegates, such as key exchange and certificate checks, runs on a
+ * separate task pool so one handshake does not stall the traffic of every other connection.
+ * Sessions are cached by the SSLContext on both sides: a client that reconnects through the same client tunnel
+ * resumes its session with an abbreviated handshake instead of a full one.
+ *
+ * @author Onur Onel
+ * oonel101@uottawa.ca
+ */
+public final class TlsTunnel implements Closeable {
+    private final SSLContext context;
+    private final boolean server;
+    private final ServerSocketChannel acceptor;
+    private final Selector selector;
+    private final AtomicLong handshakes = new AtomicLong();
+    private final ExecutorService tasks;
+    private final Queue<Relay> ready = new ConcurrentLinkedQueue<>();
+    private volatile InetSocketAddress target;
+    private volatile boolean closed;
+
+    private TlsTunnel(SSLContext context, boolean server, InetSocketAddress listen, InetSocketAddress target)
+            throws IOException {
+        this.context = context;
+        this.server = server;
+        this.target = target;
+        this.selector = Selector.open();
+        this.acceptor = ServerSocketChannel.open();
+        acceptor.bind(listen);
+        acceptor.configureBlocking(false);
+        acceptor.register(selector, SelectionKey.OP_ACCEPT);
+        this.tasks = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, server ? "tls-server-task" : "tls-client-task");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Thread thread = new Thread(this::run, server ? "tls-server-tunnel" : "tls-client-tunnel");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Starts a tunnel that accepts TLS connections on a port and relays them to a plain server on this host.
+     *
+     * @param context    The context holding the server's key and certificate.
+     * @param port       The port on which TLS connections are accepted.
+     * @param targetPort The port of the plain server on the loopback interface.
+     * @return The running tunnel.
+     * @throws IOException If the port cannot be bound.
+     */
+    public static TlsTunnel server(SSLContext context, int port, int targetPort) throws IOException {
+        return new TlsTunnel(context, true, new InetSocketAddress(port),
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), targetPort));
+    }
+
+    /**
+     * Starts a tunnel that accepts plain connections on an ephemeral loopback port and relays them over TLS
+     * to a server tunnel. The server's certificate must be trusted by the context and match the host name.
+     * The host is resolved here, once, rather than for every connection on the tunnel thread.
+     *
+     * @param context The context holding the trusted certificates and the client session cache.
+     * @param host    The host of the server tunnel.
+     * @param port    The port of the server tunnel.
+     * @return The running tunnel.
+     * @throws IOException If no loopback port can be bound.
+     */
+    public static TlsTunnel client(SSLContext context, String host, int port) throws IOException {
+        return new TlsTunnel(context, false, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                new InetSocketAddress(host, port));
+    }
+
+    /**
+     * Returns the port on which this tunnel accepts connections.
+     *
+     * @return The local port.
+     */
+    public int getLocalPort() {
+        return acceptor.socket().getLocalPort();
+    }
+
+    /**
+     * Changes where connections accepted from now on are relayed to. Open connections are not affected.
+     * The host is resolved by the caller; if it cannot be, connections fail until another target is set.
+     *
+     * @param host The target host.
+     * @param port The target port.
+     */
+    public void setTarget(String host, int port) {
+        this.target = new InetSocketAddress(host, port);
+    }
+
+    /**
+     * Returns the host connections are relayed to.
+     *
+     * @return The target host.
+     */
+    public String getTargetHost() {
+        return target.getHostString();
+    }
+
+    /**
+     * Returns the port connections are relayed to.
+     *
+     * @return The target port.
+     */
+    public int getTargetPort() {
+        return target.getPort();
+    }
+
+    /**
+     * Returns the number of TLS handshakes completed, full or resumed.
+     *
+     * @return The handshake count.
+     */
+    public long handshakes() {
+        return handshakes.get();
+    }
+
+    /**
+     * Stops accepting connections and closes every relayed connection.
+     * The tunnel thread does the closing, so this returns before it has finished.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        selector.wakeup();
+    }
+
+    private void run() {
+        try {
+            while (!closed) {
+                selector.select();
+                Relay resumed;
+                while ((resumed = ready.poll()) != null) {
+                    resumed.tasksDone();
+                }
+                Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+                while (selected.hasNext()) {
+                    SelectionKey key = selected.next();
+                    selected.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else {
+                        Relay relay = (Relay) key.attachment();
+                        try {
+                            relay.pump();
+                        } catch (IOException | RuntimeException e) {
+                            relay.close();
+                        }
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            System.err.println("TLS tunnel stopped: " + e.getMessage());
+        } finally {
+            tasks.shutdownNow();
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Relay) {
+                    ((Relay) key.attachment()).close();
+                }
+            }
+            try {
+                acceptor.close();
+                selector.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void accept() {
+        SocketChannel inbound = null;
+        SocketChannel outbound = null;
+        try {
+            inbound = acceptor.accept();
+            if (inbound == null) {
+                return;
+            }
+            InetSocketAddress to = target;
+            outbound = SocketChannel.open();
+            outbound.configureBlocking(false);
+            outbound.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            outbound.connect(to);
+            inbound.configureBlocking(false);
+            inbound.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            SSLEngine engine;
+            if (server) {
+                engine = context.createSSLEngine();
+                engine.setUseClientMode(false);
+            } else {
+                engine = context.createSSLEngine(to.getHostString(), to.getPort());
+                engine.setUseClientMode(true);
+                SSLParameters parameters = engine.getSSLParameters();
+                parameters.setEndpointIdentificationAlgorithm("HTTPS");
+                engine.setSSLParameters(parameters);
+            }
+            engine.beginHandshake();
+            new Relay(engine, server ? inbound : outbound, server ? outbound : inbound);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("TLS tunnel could not relay connection: " + e.getMessage());
+            closeQuietly(inbound);
+            closeQuietly(outbound);
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * One relayed connection: a TLS channel and a plain channel joined by an SSLEngine.
+     * All buffers are kept in write mode between calls, their position being the number of bytes held.
+     * Every event on either channel runs pump, which makes all the progress it can and then
+     * sets the interest of both channels from what is left to do.
+     */
+    private final class Relay {
+        private final SSLEngine engine;
+        private final SocketChannel tls;
+        private final SocketChannel plain;
+        private final SelectionKey tlsKey;
+        private final SelectionKey plainKey;
+        private final ByteBuffer tlsIn;
+        private ByteBuffer tlsOut;
+        private final ByteBuffer plainIn;
+        private ByteBuffer plainOut;
+        private boolean handshaking = true;
+        private boolean tasksRunning;
+        private boolean closing;
+
+        Relay(SSLEngine engine, SocketChannel tls, SocketChannel plain) throws IOException {
+            this.engine = engine;
+            this.tls = tls;
+            this.plain = plain;
+            int packet = engine.getSession().getPacketBufferSize();
+            int application = engine.getSession().getApplicationBufferSize();
+            this.tlsIn = ByteBuffer.allocate(packet);
+            this.tlsOut = ByteBuffer.allocate(packet);
+            this.plainIn = ByteBuffer.allocate(application);
+            this.plainOut = ByteBuffer.allocate(application);
+            this.tlsKey = tls.register(selector, 0, this);
+            this.plainKey = plain.register(selector, 0, this);
+            pump();
+        }
+
+        void pump() throws IOException {
+            if (!finishConnect(tls) || !finishConnect(plain)) {
+                return;
+            }
+            boolean progress;
+            do {
+                progress = read(tls, tlsIn) | read(plain, plainIn);
+                progress |= unwrap() | wrap();
+                progress |= write(tls, tlsOut) | write(plain, plainOut);
+            } while (progress);
+            if (closing) {
+                if (!engine.isOutboundDone() && (handshaking || plainIn.position() == 0)) {
+                    engine.closeOutbound();
+                    while (wrap() | write(tls, tlsOut)) {
+                        // flush close_notify
+                    }
+                }
+                if (engine.isOutboundDone() && tlsOut.position() == 0 && plainOut.position() == 0) {
+                    close();
+                    return;
+                }
+            }
+            tlsKey.interestOps((closing || !tlsIn.hasRemaining() ? 0 : SelectionKey.OP_READ)
+                    | (tlsOut.position() > 0 ? SelectionKey.OP_WRITE : 0));
+            plainKey.interestOps((closing || handshaking || !plainIn.hasRemaining() ? 0 : SelectionKey.OP_READ)
+                    | (plainOut.position() > 0 ? SelectionKey.OP_WRITE : 0));
+        }
+
+        private boolean finishConnect(SocketChannel channel) throws IOException {
+            if (!channel.isConnectionPending()) {
+                return true;
+            }
+            if (channel.finishConnect()) {
+                return true;
+            }
+            (channel == tls ? tlsKey : plainKey).interestOps(SelectionKey.OP_CONNECT);
+            return false;
+        }
+
+        /**
+         * Reads what a channel has available into a buffer. End of stream on either side starts closing:
+         * what has been read is still relayed, then close_notify is sent and both channels are closed.
+         */
+        private boolean read(SocketChannel channel, ByteBuffer buffer) throws IOException {
+            if (closing || !buffer.hasRemaining()) {
+                return false;
+            }
+            int read = channel.read(buffer);
+            if (read < 0) {
+                closing = true;
+                if (channel == tls) {
+                    try {
+                        engine.closeInbound();
+                    } catch (SSLException ignored) {
+                    }
+                }
+                return true;
+            }
+            return read > 0;
+        }
+
+        private boolean write(SocketChannel channel, ByteBuffer buffer) throws IOException {
+            if (buffer.position() == 0) {
+                return false;
+            }
+            buffer.flip();
+            int written = channel.write(buffer);
+            buffer.compact();
+            return written > 0;
+        }
+
+        private boolean unwrap() throws SSLException {
+            if (tasksRunning) {
+                return false;
+            }
+            boolean progress = false;
+            tlsIn.flip();
+            try {
+                while (tlsIn.hasRemaining() && !engine.isInboundDone() && !tasksRunning) {
+                    SSLEngineResult result = engine.unwrap(tlsIn, plainOut);
+                    progress |= runTasks(result) | result.bytesConsumed() > 0 | result.bytesProduced() > 0;
+                    if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                        if (plainOut.position() == 0) {
+                            plainOut = grow(plainOut, engine.getSession().getApplicationBufferSize());
+                            continue;
+                        }
+                        break;
+                    }
+                    if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                        closing = true;
+                        break;
+                    }
+                    if (result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW
+                            || engine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_WRAP
+                            || (result.bytesConsumed() == 0 && result.bytesProduced() == 0)) {
+                        break;
+                    }
+                }
+            } finally {
+                tlsIn.compact();
+            }
+            return progress;
+        }
+
+        private boolean wrap() throws SSLException {
+            if (tasksRunning) {
+                return false;
+            }
+            boolean progress = false;
+            plainIn.flip();
+            try {
+                while (!engine.isOutboundDone() && !tasksRunning
+                        && (engine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_WRAP
+                        || (!handshaking && plainIn.hasRemaining()))) {
+                    SSLEngineResult result = engine.wrap(plainIn, tlsOut);
+                    progress |= runTasks(result) | result.bytesConsumed() > 0 | result.bytesProduced() > 0;
+                    if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                        if (tlsOut.position() == 0) {
+                            tlsOut = grow(tlsOut, engine.getSession().getPacketBufferSize());
+                            continue;
+                        }
+                        break;
+                    }
+                    if (result.getStatus() == SSLEngineResult.Status.CLOSED
+                            || (result.bytesConsumed() == 0 && result.bytesProduced() == 0)) {
+                        break;
+                    }
+                }
+            } finally {
+                plainIn.compact();
+            }
+            return progress;
+        }
+
+        /**
+         * Hands the handshake work the engine delegates to the task pool, and notes when the handshake has
+         * finished so the plain side starts being read. Until the work is done the engine is neither wrapped nor
+         * unwrapped; the task pool then queues the relay and wakes the tunnel thread, which pumps it again.
+         *
+         * @param result The result of the last wrap or unwrap.
+         * @return True if the handshake finished.
+         */
+        private boolean runTasks(SSLEngineResult result) {
+            boolean finished = false;
+            if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK && !tasksRunning) {
+                tasksRunning = true;
+                try {
+                    tasks.execute(() -> {
+                        try {
+                            Runnable task;
+                            while ((task = engine.getDelegatedTask()) != null) {
+                                task.run();
+                            }
+                        } finally {
+                            ready.add(this);
+                            selector.wakeup();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    tasksRunning = false;
+                }
+                return false;
+            }
+            if (handshaking && (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.FINISHED
+                    || engine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING)) {
+                handshaking = false;
+                handshakes.incrementAndGet();
+                finished = true;
+            }
+            return finished;
+        }
+
+        /**
+         * Resumes the relay on the tunnel thread once its delegated handshake work has finished.
+         */
+        void tasksDone() {
+            tasksRunning = false;
+            if (!tlsKey.isValid()) {
+                return;
+            }
+            try {
+                pump();
+            } catch (IOException | RuntimeException e) {
+                close();
+            }
+        }
+
+        private ByteBuffer grow(ByteBuffer buffer, int size) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(size, buffer.capacity() * 2));
+            buffer.flip();
+            larger.put(buffer);
+            return larger;
+        }
+
+        void close() {
+            tlsKey.cancel();
+            plainKey.cancel();
+            closeQuietly(tls);
+            closeQuietly(plain);
+        }
+    }
+}
@@ -1,9 +1,12 @@
 package edu.seg2105.client.ui;
 
 import edu.seg2105.client.backend.ChatClient;
+import edu.seg2105.client.common.AsyncDisplay;
 import edu.seg2105.client.common.ChatIF;
 
+import javax.net.ssl.SSLContext;
 import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
 import java.util.Scanner;
 
 /**
@@ -16,8 +19,10 @@ import java.util.Scanner;
  */
 public class ClientConsole implements ChatIF {
     public static final int DEFAULT_PORT = 5555;
+    public static final String TLS_PROPERTY = "chat.tls";
     ChatClient client;
     Scanner fromConsole;
+    private final AsyncDisplay output = new AsyncDisplay(System.out, "> ");
 
     /**
      * Constructs a ClientConsole object and attempts to establish a connection
@@ -30,7 +35,10 @@ public class ClientConsole implements ChatIF {
     public ClientConsole(String loginId, String host, int port) {
         try {
             this.client = new ChatClient(loginId, host, port, this);
-        } catch (IOException exception) {
+            if (Boolean.getBoolean(TLS_PROPERTY)) {
+                client.enableTls(SSLContext.getDefault());
+            }
+        } catch (IOException | NoSuchAlgorithmException exception) {
             System.out.println("Can't setup connection! Terminating client.");
             System.exit(1);
         }
@@ -41,6 +49,8 @@ public class ClientConsole implements ChatIF {
      * The entry point for the chat client application.
      * Expects at least one argument for the login ID, followed optionally by
      * the host and port number. If not provided, default values are used.
+     * With -Dchat.tls=true the host and port are the server's TLS port, and the server certificate is checked
+     * against the trust store named by the standard javax.net.ssl.trustStore properties.
      *
      * @param args Command-line arguments: [loginId] [host] [port].
      */
@@ -93,7 +103,13 @@ public class ClientConsole implements ChatIF {
         }
     }
 
+    /**
+     * Displays a message to the console. The line is queued and written in batches by a background thread,
+     * so the network thread calling this never waits on the terminal.
+     *
+     * @param message The message text to display.
+     */
     public void display(String message) {
-        System.out.println("> " + message);
+        output.display(message);
     }
 }
\ No newline at end of file
@@ -0,0 +1,251 @@
+package edu.seg2105.client.ui;
+
+import edu.seg2105.client.backend.ChatClient;
+import edu.seg2105.client.common.ChatIF;
+import edu.seg2105.client.common.LatencyHistogram;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The LoadGenerator class is a headless load-testing tool that drives many ChatClient instances against a server.
+ * Clients connect at a fixed rate and log in using a login ID pattern; once connected, they take turns sending
+ * fixed-size messages at a fixed total rate. Every message carries its send time, so each client that receives the
+ * broadcast records the end-to-end latency. Messages are sent with acknowledgements, so only messages the server
+ * published count as sent and those it refused, for example over its rate limit, count as dropped. At the end the tool prints latency percentiles, throughput and
+ * connection failures, and optionally writes them as JSON for regression tracking.
+ * With --ports the clients are spread round-robin over several cluster nodes on the same host,
+ * so the reported latency includes cross-node delivery.
+ * Options (all optional):
+ * --host [host], --port [port], --ports [port,port,...], --clients [count], --connect-rate [per second], --rate [messages per second],
+ * --size [bytes], --duration [seconds], --login-pattern [format, e.g. load%d], --out [json file]
+ *
+ * @author Onur Onel
+ * oonel101@uottawa.ca
+ */
+public class LoadGenerator {
+    private static final String MARKER = " lg ";
+
+    private String host = "localhost";
+    private int[] ports = {ClientConsole.DEFAULT_PORT};
+    private int clients = 100;
+    private int connectRate = 200;
+    private int rate = 100;
+    private int size = 64;
+    private int duration = 30;
+    private String loginPattern = "load%d";
+    private String out;
+
+    private final List<ChatClient> connected = new CopyOnWriteArrayList<>();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicInteger connectFailures = new AtomicInteger();
+    private final AtomicInteger disconnects = new AtomicInteger();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong sendFailures = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * The entry point of the load generator.
+     *
+     * @param args Command-line options as described in the class documentation.
+     */
+    public static void main(String[] args) {
+        LoadGenerator generator = new LoadGenerator();
+        try {
+            generator.parse(args);
+        } catch (RuntimeException exception) {
+            System.out.println("Invalid arguments: " + exception.getMessage());
+            System.exit(1);
+        }
+        try {
+            generator.run();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+        System.exit(0);
+    }
+
+    private void parse(String[] args) {
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--host": host = value; break;
+                case "--port": ports = new int[]{Integer.parseInt(value)}; break;
+                case "--ports": ports = Arrays.stream(value.split(",")).mapToInt(Integer::parseInt).toArray(); break;
+                case "--clients": clients = Integer.parseInt(value); break;
+                case "--connect-rate": connectRate = Integer.parseInt(value); break;
+                case "--rate": rate = Integer.parseInt(value); break;
+                case "--size": size = Integer.parseInt(value); break;
+                case "--duration": duration = Integer.parseInt(value); break;
+                case "--login-pattern": loginPattern = value; break;
+                case "--out": out = value; break;
+                default: throw new IllegalArgumentException("unknown option " + args[i]);
+            }
+        }
+        if (args.length % 2 != 0) {
+            throw new IllegalArgumentException("missing value for " + args[args.length - 1]);
+        }
+        if (clients <= 0 || connectRate <= 0 || rate <= 0 || duration <= 0) {
+            throw new IllegalArgumentException("counts and rates must be positive");
+        }
+    }
+
+    /**
+     * Connects the clients, sends messages for the configured duration and reports the results.
+     *
+     * @throws InterruptedException If the run is interrupted.
+     */
+    private void run() throws InterruptedException {
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+        AtomicInteger next = new AtomicInteger();
+        scheduler.scheduleAtFixedRate(() -> {
+            int index = next.getAndIncrement();
+            if (index < clients) {
+                connect(index);
+            }
+        }, 0, TimeUnit.SECONDS.toNanos(1) / connectRate, TimeUnit.NANOSECONDS);
+
+        String padding = "x".repeat(Math.max(0, size));
+        AtomicInteger turn = new AtomicInteger();
+        scheduler.scheduleAtFixedRate(() -> {
+            ChatClient[] senders = connected.toArray(new ChatClient[0]);
+            if (senders.length == 0) {
+                return;
+            }
+            ChatClient sender = senders[Math.floorMod(turn.getAndIncrement(), senders.length)];
+            if (!sender.isConnected()) {
+                return;
+            }
+            String message = MARKER.trim() + " " + System.nanoTime() + " " + padding;
+            sender.sendAsync(message).whenComplete((sequence, failure) -> {
+                if (failure == null) {
+                    sent.incrementAndGet();
+                } else {
+                    dropped.incrementAndGet();
+                }
+            });
+        }, 0, TimeUnit.SECONDS.toNanos(1) / rate, TimeUnit.NANOSECONDS);
+
+        long start = System.nanoTime();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(duration));
+        scheduler.shutdownNow();
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        for (ChatClient client : connected) {
+            try {
+                client.closeConnection();
+            } catch (IOException ignored) {
+            }
+        }
+        report(elapsed);
+    }
+
+    private void connect(int index) {
+        String loginId = String.format(loginPattern, index);
+        try {
+            ChatClient client = new LoadClient(loginId, host, ports[index % ports.length], this::received);
+            client.openConnection();
+        } catch (IOException exception) {
+            connectFailures.incrementAndGet();
+        }
+    }
+
+    /**
+     * Records the latency of a message seen by one of the clients.
+     * Messages that were not sent by this tool are ignored.
+     *
+     * @param message The displayed message.
+     */
+    private void received(String message) {
+        int marker = message.indexOf(MARKER);
+        if (marker < 0) {
+            return;
+        }
+        int start = marker + MARKER.length();
+        int end = message.indexOf(' ', start);
+        try {
+            long sentAt = Long.parseLong(message.substring(start, end < 0 ? message.length() : end));
+            latency.record(System.nanoTime() - sentAt);
+        } catch (NumberFormatException ignored) {
+        }
+    }
+
+    private void report(double elapsed) {
+        String summary = String.format(Locale.ROOT,
+                "clients=%d connected=%d connectFailures=%d disconnects=%d sendFailures=%d%n"
+                        + "sent=%d (%.1f msg/s) dropped=%d delivered=%d (%.1f msg/s)%n"
+                        + "latency us: p50=%.1f p99=%.1f p999=%.1f max=%.1f mean=%.1f",
+                clients, connected.size(), connectFailures.get(), disconnects.get(), sendFailures.get(),
+                sent.get(), sent.get() / elapsed, dropped.get(), latency.count(), latency.count() / elapsed,
+                micros(latency.valueAtPercentile(50)), micros(latency.valueAtPercentile(99)),
+                micros(latency.valueAtPercentile(99.9)), micros(latency.max()), latency.mean() / 1000.0);
+        System.out.println(summary);
+        if (out == null) {
+            return;
+        }
+        String json = String.format(Locale.ROOT,
+                "{\"nodes\":%d,\"clients\":%d,\"connected\":%d,\"connectFailures\":%d,\"disconnects\":%d,\"sendFailures\":%d,"
+                        + "\"durationSeconds\":%.3f,\"messageSize\":%d,\"rate\":%d,"
+                        + "\"sent\":%d,\"dropped\":%d,\"delivered\":%d,\"sentPerSecond\":%.1f,\"deliveredPerSecond\":%.1f,"
+                        + "\"latencyMicros\":{\"p50\":%.1f,\"p99\":%.1f,\"p999\":%.1f,\"max\":%.1f,\"mean\":%.1f}}%n",
+                ports.length, clients, connected.size(), connectFailures.get(), disconnects.get(), sendFailures.get(),
+                elapsed, size, rate, sent.get(), dropped.get(), latency.count(), sent.get() / elapsed, latency.count() / elapsed,
+                micros(latency.valueAtPercentile(50)), micros(latency.valueAtPercentile(99)),
+                micros(latency.valueAtPercentile(99.9)), micros(latency.max()), latency.mean() / 1000.0);
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(Paths.get(out), StandardCharsets.UTF_8))) {
+            writer.print(json);
+        } catch (IOException exception) {
+            System.out.println("Could not write " + out + ": " + exception.getMessage());
+        }
+    }
+
+    private static double micros(long nanos) {
+        return nanos / 1000.0;
+    }
+
+    /**
+     * A ChatClient that joins the sender rotation once its login has been sent,
+     * and reports failures to the generator instead of exiting the process.
+     */
+    private class LoadClient extends ChatClient {
+
+        LoadClient(String loginId, String host, int port, ChatIF sink) throws IOException {
+            super(loginId, host, port, sink);
+            setAcknowledgements(true);
+        }
+
+        @Override
+        protected void connectionEstablished() {
+            super.connectionEstablished();
+            connected.add(this);
+        }
+
+        @Override
+        protected void connectionException(Exception exception) {
+            if (connected.remove(this)) {
+                disconnects.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void quit() {
+            connected.remove(this);
+            sendFailures.incrementAndGet();
+            try {
+                closeConnection();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
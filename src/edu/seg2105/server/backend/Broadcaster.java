@@ -0,0 +1,150 @@
+package edu.seg2105.server.backend;
+
+import ocsf.server.ConnectionToClient;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * The Broadcaster class spreads the delivery of published messages over a fixed number of shard threads.
+ * Every connection belongs to one shard for its whole life, and every recipient Group keeps its members split
+ * by shard, so a broadcast is handed to all shards at once and each shard walks only its own share of the group.
+ * Each shard runs its tasks in submission order, and a sender's messages are all submitted from the sender's
+ * connection thread, so every recipient receives a sender's messages in the order they were sent. Messages for
+ * a single recipient that must stay in order with broadcasts are run on the recipient's shard with execute.
+ *
+ * @author Onur Onel
+ * oonel101@uottawa.ca
+ */
+final class Broadcaster {
+    private final ExecutorService[] shards;
+
+    /**
+     * Constructs a broadcaster and starts its shard threads.
+     *
+     * @param shardCount The number of shards, typically the number of cores.
+     */
+    Broadcaster(int shardCount) {
+        this.shards = new ExecutorService[Math.max(1, shardCount)];
+        for (int i = 0; i < shards.length; i++) {
+            String name = "broadcast-shard-" + (i + 1);
+            shards[i] = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Creates an empty recipient group split over this broadcaster's shards.
+     *
+     * @return The new group.
+     */
+    Group newGroup() {
+        return new Group(shards.length);
+    }
+
+    /**
+     * Runs a task on the shard that owns a connection, after every broadcast already handed to that shard.
+     *
+     * @param client The connection the task delivers to.
+     * @param task   The task.
+     */
+    void execute(ConnectionToClient client, Runnable task) {
+        shards[shardOf(client, shards.length)].execute(task);
+    }
+
+    /**
+     * Hands a delivery to every member of a group, each shard working through its own members in parallel.
+     * Shards without members in the group are skipped.
+     *
+     * @param group   The recipients.
+     * @param deliver Delivers the message to one recipient; runs on the recipient's shard thread.
+     * @param done    Runs once every shard has finished, on the last shard to finish.
+     */
+    void broadcast(Group group, Consumer<ConnectionToClient> deliver, Runnable done) {
+        int busy = 0;
+        for (Set<ConnectionToClient> part : group.parts) {
+            if (!part.isEmpty()) {
+                busy++;
+            }
+        }
+        if (busy == 0) {
+            done.run();
+            return;
+        }
+        AtomicInteger remaining = new AtomicInteger(busy);
+        for (int i = 0; i < shards.length; i++) {
+            Set<ConnectionToClient> part = group.parts[i];
+            if (part.isEmpty()) {
+                continue;
+            }
+            shards[i].execute(() -> {
+                for (ConnectionToClient client : part) {
+                    deliver.accept(client);
+                }
+                if (remaining.decrementAndGet() == 0) {
+                    done.run();
+                }
+            });
+        }
+    }
+
+    private static int shardOf(ConnectionToClient client, int shardCount) {
+        return Math.floorMod(System.identityHashCode(client), shardCount);
+    }
+
+    /**
+     * A set of recipient connections kept as one concurrent set per shard.
+     */
+    static final class Group {
+        private final Set<ConnectionToClient>[] parts;
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private Group(int shardCount) {
+            this.parts = new Set[shardCount];
+            for (int i = 0; i < shardCount; i++) {
+                parts[i] = ConcurrentHashMap.newKeySet();
+            }
+        }
+
+        /**
+         * Adds a connection to the group.
+         *
+         * @param client The connection to add.
+         * @return False if it was already a member.
+         */
+        boolean add(ConnectionToClient client) {
+            return parts[shardOf(client, parts.length)].add(client);
+        }
+
+        /**
+         * Removes a connection from the group.
+         *
+         * @param client The connection to remove.
+         * @return False if it was not a member.
+         */
+        boolean remove(ConnectionToClient client) {
+            return parts[shardOf(client, parts.length)].remove(client);
+        }
+
+        /**
+         * Returns whether the group has no members.
+         *
+         * @return True if every shard's part is empty.
+         */
+        boolean isEmpty() {
+            for (Set<ConnectionToClient> part : parts) {
+                if (!part.isEmpty()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package edu.seg2105.server.backend;
+
+import ocsf.server.ConnectionToClient;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The Channels class keeps the subscriptions of logged-in clients to named chat channels.
+ * It indexes subscribers by channel, so publishing to a channel only visits that channel's members,
+ * and it mirrors each client's own channels in the connection info so a client can be removed from every
+ * channel it joined without scanning the others. Empty channels are dropped.
+ * Each channel's subscribers are a Broadcaster group, split by shard so publishing can be done in parallel.
+ *
+ * @author Onur Onel
+ * oonel101@uottawa.ca
+ */
+final class Channels {
+    static final String DEFAULT = "general";
+
+    private final ConcurrentMap<String, Broadcaster.Group> subscribers = new ConcurrentHashMap<>();
+    private final Broadcaster broadcaster;
+    private final Broadcaster.Group none;
+
+    /**
+     * Constructs an empty channel index.
+     *
+     * @param broadcaster The broadcaster whose shards the subscriber groups are split over.
+     */
+    Channels(Broadcaster broadcaster) {
+        this.broadcaster = broadcaster;
+        this.none = broadcaster.newGroup();
+    }
+
+    /**
+     * Subscribes a client to a channel.
+     *
+     * @param channel The channel name.
+     * @param client  The connection to subscribe.
+     * @return False if the client had already joined the channel.
+     */
+    boolean join(String channel, ConnectionToClient client) {
+        if (!channelsOf(client).add(channel)) {
+            return false;
+        }
+        subscribers.compute(channel, (name, members) -> {
+            if (members == null) {
+                members = broadcaster.newGroup();
+            }
+            members.add(client);
+            return members;
+        });
+        return true;
+    }
+
+    /**
+     * Unsubscribes a client from a channel.
+     *
+     * @param channel The channel name.
+     * @param client  The connection to unsubscribe.
+     * @return False if the client was not in the channel.
+     */
+    boolean leave(String channel, ConnectionToClient client) {
+        if (!channelsOf(client).remove(channel)) {
+            return false;
+        }
+        subscribers.computeIfPresent(channel, (name, members) -> {
+            members.remove(client);
+            return members.isEmpty() ? null : members;
+        });
+        return true;
+    }
+
+    /**
+     * Unsubscribes a client from every channel it joined.
+     *
+     * @param client The connection being released.
+     */
+    void leaveAll(ConnectionToClient client) {
+        for (String channel : channelsOf(client)) {
+            leave(channel, client);
+        }
+    }
+
+    /**
+     * Returns the current subscribers of a channel.
+     *
+     * @param channel The channel name.
+     * @return A live view of the subscribers, empty if the channel does not exist.
+     */
+    Broadcaster.Group subscribersOf(String channel) {
+        Broadcaster.Group members = subscribers.get(channel);
+        return members == null ? none : members;
+    }
+
+    /**
+     * Returns the channels a client has joined, creating the set on first use.
+     *
+     * @param client The connection to inspect.
+     * @return The live set of channel names.
+     */
+    @SuppressWarnings("unchecked")
+    Set<String> channelsOf(ConnectionToClient client) {
+        Set<String> channels = (Set<String>) client.getInfo("channels");
+        if (channels == null) {
+            channels = ConcurrentHashMap.newKeySet();
+            client.setInfo("channels", channels);
+        }
+        return channels;
+    }
+}
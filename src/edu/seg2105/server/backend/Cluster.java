@@ -0,0 +1,252 @@
+package edu.seg2105.server.backend;
+
+import edu.seg2105.client.common.CommandLine;
+import edu.seg2105.client.common.CommandRegistry;
+import ocsf.server.ConnectionToClient;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * The Cluster class connects an EchoServer to its peer nodes so that users on different nodes share one chat.
+ * Nodes form a full mesh: every node keeps an outbound PeerLink to every peer, and every message that originates
+ * on a node is relayed once over each of those links. Receivers deliver relayed messages to their own clients only
+ * and never forward them, so each message reaches every node exactly once without loops; relays also carry the
+ * origin node so that a node never delivers its own messages back to its clients.
+ * Only connections that log in with peer=on and the secret shared by the nodes are trusted with these lines.
+ * Login IDs are shared through #claim and #release announcements. If two nodes accept the same login ID at the
+ * same moment, the claim from the node with the smaller node ID wins and the other node disconnects its user.
+ * Peer protocol lines (sent as legacy Strings) are:
+ * - #relay [origin] [channel or *] [text]
+ * - #claim [node] [loginId] and #release [node] [loginId]
+ * - #whisper-relay [loginId] [sender] [text]
+ *
+ * @author Onur Onel
+ * oonel101@uottawa.ca
+ */
+final class Cluster {
+    private static final String ALL_CHANNELS = "*";
+
+    final String nodeId;
+    final String secret;
+    private final String origin;
+    private final EchoServer server;
+    private final List<PeerLink> links = new CopyOnWriteArrayList<>();
+    private final ConcurrentMap<String, String> remoteLogins = new ConcurrentHashMap<>();
+    private final CommandRegistry<ConnectionToClient> commands = new CommandRegistry<>();
+
+    /**
+     * Constructs the cluster membership of a node.
+     *
+     * @param nodeId The unique ID of this node.
+     * @param secret The secret shared by the nodes of the cluster.
+     * @param server The local server.
+     */
+    Cluster(String nodeId, String secret, EchoServer server) {
+        this.nodeId = nodeId;
+        this.secret = secret;
+        this.origin = nodeId + "@" + System.currentTimeMillis();
+        this.server = server;
+        commands.register("#relay", this::relayed);
+        commands.register("#claim", (peer, args) -> claimed(args.next(), args.next()));
+        commands.register("#release", (peer, args) -> {
+            String node = args.next();
+            String loginId = args.next();
+            if (node != null && loginId != null) {
+                remoteLogins.remove(loginId, node);
+            }
+        });
+        commands.register("#whisper-relay", (peer, args) -> server.whisperLocal(args.next(), args.next(), args.rest()));
+    }
+
+    /**
+     * Opens outbound links to the given peers.
+     *
+     * @param peers The peers, each as host:port.
+     */
+    void connect(List<String> peers) {
+        for (String peer : peers) {
+            int separator = peer.lastIndexOf(':');
+            int port;
+            try {
+                port = Integer.parseInt(peer.substring(separator + 1));
+            } catch (NumberFormatException e) {
+                System.err.println("Ignoring peer '" + peer + "': expected host:port");
+                continue;
+            }
+            ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "peer-link-" + peer);
+                thread.setDaemon(true);
+                return thread;
+            });
+            PeerLink link = new PeerLink(separator > 0 ? peer.substring(0, separator) : "localhost", port, this, executor);
+            links.add(link);
+            link.start();
+        }
+    }
+
+    /**
+     * Closes every outbound link.
+     */
+    void stop() {
+        for (PeerLink link : links) {
+            link.stop();
+        }
+        links.clear();
+    }
+
+    /**
+     * Relays a message that originated on this node to every peer.
+     *
+     * @param channel The channel it was published to, or the empty string for a server-wide message.
+     * @param text    The message text.
+     */
+    void relay(String channel, String text) {
+        String line = "#relay " + origin + " " + (channel.isEmpty() ? ALL_CHANNELS : channel) + " " + text;
+        for (PeerLink link : links) {
+            link.send(line);
+        }
+    }
+
+    /**
+     * Announces that a user logged in on this node.
+     *
+     * @param loginId The login ID claimed.
+     */
+    void claim(String loginId) {
+        for (PeerLink link : links) {
+            link.send("#claim " + nodeId + " " + loginId);
+        }
+    }
+
+    /**
+     * Announces that a user of this node logged out.
+     *
+     * @param loginId The login ID released.
+     */
+    void release(String loginId) {
+        for (PeerLink link : links) {
+            link.send("#release " + nodeId + " " + loginId);
+        }
+    }
+
+    /**
+     * Forwards a whisper over the link to the node the recipient is logged in on.
+     *
+     * @param target The recipient login ID.
+     * @param sender The sender login ID.
+     * @param text   The message text.
+     * @return False if the recipient is not known to be logged in on a node this node has a link to.
+     */
+    boolean whisper(String target, String sender, String text) {
+        String owner = remoteLogins.get(target);
+        if (owner == null) {
+            return false;
+        }
+        for (PeerLink link : links) {
+            if (owner.equals(link.node())) {
+                link.send("#whisper-relay " + target + " " + sender + " " + text);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tells whether a connection logging in as a node presented the cluster secret.
+     * The comparison takes the same time wherever the secrets differ.
+     *
+     * @param presented The secret sent with #login, or null if none was sent.
+     * @return True if it matches this node's secret.
+     */
+    boolean authenticates(String presented) {
+        return presented != null && MessageDigest.isEqual(presented.getBytes(StandardCharsets.UTF_8),
+                secret.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Tells whether a login ID is held by a user on another node.
+     *
+     * @param loginId The login ID.
+     * @return True if a peer has claimed it.
+     */
+    boolean isClaimedRemotely(String loginId) {
+        return remoteLogins.containsKey(loginId);
+    }
+
+    /**
+     * Handles a protocol line received on an inbound peer connection.
+     *
+     * @param peer The inbound connection from the peer node.
+     * @param line The protocol line.
+     * @return False if the line is not a peer command.
+     */
+    boolean handle(ConnectionToClient peer, String line) {
+        try {
+            return commands.dispatch(peer, line);
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Forgets the logins of a peer whose inbound connection went away.
+     *
+     * @param peer The inbound connection from the peer node.
+     */
+    void peerLost(ConnectionToClient peer) {
+        String node = peerOf(peer);
+        remoteLogins.values().removeIf(owner -> owner.equals(node));
+    }
+
+    /**
+     * Returns the state of the outbound links and the number of remote users.
+     *
+     * @return A one-line summary per link followed by the remote user count.
+     */
+    String describe() {
+        StringBuilder description = new StringBuilder("node " + nodeId);
+        for (PeerLink link : links) {
+            description.append(System.lineSeparator()).append("peer ").append(link);
+        }
+        return description.append(System.lineSeparator()).append(remoteLogins.size()).append(" remote users").toString();
+    }
+
+    Set<String> localLogins() {
+        return server.localLogins();
+    }
+
+    private void relayed(ConnectionToClient peer, CommandLine args) {
+        String from = args.next();
+        String channel = args.next();
+        if (from == null || channel == null || from.equals(origin)) {
+            return;
+        }
+        server.deliverRelayed(ALL_CHANNELS.equals(channel) ? "" : channel, args.rest());
+    }
+
+    private void claimed(String node, String loginId) {
+        if (node == null || loginId == null || node.equals(nodeId)) {
+            return;
+        }
+        if (server.localLogins().contains(loginId)) {
+            if (node.compareTo(nodeId) > 0) {
+                return;
+            }
+            server.evict(loginId, "Login ID '" + loginId + "' was claimed on another node");
+        }
+        remoteLogins.put(loginId, node);
+    }
+
+    private static String peerOf(ConnectionToClient peer) {
+        return (String) peer.getInfo("peer");
+    }
+}
@@ -0,0 +1,68 @@
+package edu.seg2105.server.backend;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The ConnectionStats class counts the messages and payload bytes received from and sent to one client.
+ * Byte counts cover the encoded payload handed to OCSF, not the serialization overhead OCSF adds around it.
+ * It also records when the client connected and when it last sent anything, for the login latency and the
+ * idle checks.
+ *
+ * @author Onur Onel
+ * oonel101@uottawa.ca
+ */
+final class ConnectionStats {
+    final AtomicLong messagesIn = new AtomicLong();
+    final AtomicLong messagesOut = new AtomicLong();
+    final AtomicLong bytesIn = new AtomicLong();
+    final AtomicLong bytesOut = new AtomicLong();
+    final long connectedAt = System.nanoTime();
+    volatile long lastReceived = connectedAt;
+
+    /**
+     * Returns the payload size of a wire object: the length of a frame, or the UTF-8 length of a legacy String.
+     *
+     * @param wire The object read from or written to a connection.
+     * @return The payload size in bytes.
+     */
+    static int sizeOf(Object wire) {
+        if (wire instanceof byte[]) {
+            return ((byte[]) wire).length;
+        }
+        if (wire instanceof String) {
+            return utf8Length((String) wire);
+        }
+        return 0;
+    }
+
+    /**
+     * Counts the bytes a String takes in UTF-8 without encoding it.
+     *
+     * @param text The text to measure.
+     * @return The UTF-8 length in bytes.
+     */
+    private static int utf8Length(String text) {
+        int bytes = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                bytes++;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length()
+                    && Character.isLowSurrogate(text.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return "in " + messagesIn.get() + " msgs/" + bytesIn.get() + " B, out " + messagesOut.get() + " msgs/"
+                + bytesOut.get() + " B";
+    }
+}
@@ -1,31 +1,127 @@
 package edu.seg2105.server.backend;
 
+import edu.seg2105.client.common.ChatIF;
+import edu.seg2105.client.common.ChatMessage;
+import edu.seg2105.client.common.CommandLine;
+import edu.seg2105.client.common.CommandRegistry;
+import edu.seg2105.client.common.MessageCodecs;
+import edu.seg2105.client.common.MessageType;
 import edu.seg2105.server.ui.ServerConsole;
 import ocsf.server.AbstractServer;
 import ocsf.server.ConnectionToClient;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
 import java.io.IOException;
-import java.util.Scanner;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Predicate;
 
 /**
  * The EchoServer class extends AbstractServer to implement a simple echo server that manages multiple client connections.
  * It supports server commands prefixed with #. Messages sent by clients are broadcast to all connected clients.
  * The server enforces a login protocol requiring clients to issue the command #login upon connection before sending messages.
+ * Connections that do not log in in time, clients that negotiated heartbeats but stop answering #ping, and peer
+ * nodes whose links stop pinging are closed by checks driven from a single timer wheel.
  *
  * @author Onur Onel
  * oonel101@uottawa.ca
  */
 public class EchoServer extends AbstractServer {
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+    public static final double DEFAULT_USER_RATE = 10;
+    public static final int DEFAULT_USER_BURST = 20;
+    public static final long DEFAULT_HEARTBEAT_INTERVAL = 15_000;
+    public static final long DEFAULT_IDLE_TIMEOUT = 45_000;
+    public static final long DEFAULT_LOGIN_TIMEOUT = 10_000;
+    public static final int DEFAULT_BACKLOG = 1024;
+    public static final int MAX_HISTORY = 1000;
+    private static final ChatMessage PING = new ChatMessage(MessageType.COMMAND, "#ping");
+    private static final ChatMessage PONG = new ChatMessage(MessageType.COMMAND, "#pong");
+    private static final ChatMessage REJECTED = new ChatMessage(MessageType.COMMAND, "#rejected");
     ServerConsole serverConsole;
+    private final ExecutorService writers;
+    private volatile int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+    private volatile OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
+    private final CommandRegistry<ChatIF> commands = new CommandRegistry<>();
+    private final CommandRegistry<ConnectionToClient> clientCommands = new CommandRegistry<>();
+    private final ConcurrentMap<String, ConnectionToClient> logins = new ConcurrentHashMap<>();
+    private final Broadcaster broadcaster = new Broadcaster(Runtime.getRuntime().availableProcessors());
+    private final Broadcaster.Group everyone = broadcaster.newGroup();
+    private final Channels channels = new Channels(broadcaster);
+    private final RecentMessages recent = new RecentMessages(RecentMessages.DEFAULT_CAPACITY);
+    private final Object publishLock = new Object();
+    private volatile MessageJournal journal;
+    private volatile int replayCount;
+    private volatile Cluster cluster;
+    private final RateLimit userLimit = new RateLimit(DEFAULT_USER_RATE, DEFAULT_USER_BURST);
+    private final RateLimit globalLimit = new RateLimit(0, 0);
+    private final TokenBucket globalBucket = new TokenBucket(globalLimit);
+    private volatile RateLimitAction rateLimitAction = RateLimitAction.DROP;
+    private final LongAdder rateLimited = new LongAdder();
+    private final ServerMetrics metrics = new ServerMetrics(this::getNumberOfClients, logins::size);
+    private final TimerWheel timers = new TimerWheel("idle-reaper", 100, 512);
+    private volatile long heartbeatInterval = DEFAULT_HEARTBEAT_INTERVAL;
+    private volatile long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+    private volatile long loginTimeout = DEFAULT_LOGIN_TIMEOUT;
+    private final Broadcaster.Group presenceSubscribers = broadcaster.newGroup();
+    private final Presence presence = new Presence(timers, Presence.DEFAULT_WINDOW, this::publishPresence);
 
     /**
      * Constructs an EchoServer instance that listens on the specified port.
+     * Connections are accepted by the single accept thread OCSF runs for that one port; the listen backlog is
+     * raised to DEFAULT_BACKLOG so that bursts of connects are queued rather than refused.
      *
      * @param port The port number on which the server will listen for client connections.
      */
     public EchoServer(int port) {
 
         super(port);
+        setBacklog(DEFAULT_BACKLOG);
+        AtomicInteger writerCount = new AtomicInteger();
+        this.writers = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()), runnable -> {
+            Thread thread = new Thread(runnable, "outbox-writer-" + writerCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        registerCommands();
+        registerMBean(port);
+    }
+
+    /**
+     * Publishes the server metrics as a JMX MBean named edu.seg2105.server:type=EchoServer,port=[port].
+     * Failure to register is reported but does not stop the server.
+     *
+     * @param port The port the server was created with, used to tell servers in one JVM apart.
+     */
+    private void registerMBean(int port) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics,
+                    new ObjectName("edu.seg2105.server:type=EchoServer,port=" + port));
+        } catch (JMException e) {
+            System.err.println("Could not register metrics MBean: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the traffic counters and latency histograms of this server.
+     *
+     * @return The server metrics.
+     */
+    public ServerMetrics getMetrics() {
+        return metrics;
     }
 
     /**
@@ -38,9 +134,97 @@ public class EchoServer extends AbstractServer {
         this.serverConsole = console;
     }
 
+    /**
+     * Starts journaling every published message to memory-mapped segment files in a directory,
+     * using the default segment size, retention and fsync interval.
+     * Clients that log in afterwards are sent the most recent journaled messages of their channels.
+     *
+     * @param directory   The directory holding the journal segments.
+     * @param replayCount The number of messages replayed on login unless the client asks otherwise.
+     * @throws IOException If the journal cannot be opened.
+     */
+    public void enableJournal(Path directory, int replayCount) throws IOException {
+        enableJournal(directory, MessageJournal.DEFAULT_SEGMENT_SIZE, MessageJournal.DEFAULT_RETAINED_SEGMENTS,
+                MessageJournal.DEFAULT_FSYNC_INTERVAL, replayCount);
+    }
+
+    /**
+     * Starts journaling every published message to memory-mapped segment files in a directory.
+     * A journal that was already enabled is closed first.
+     *
+     * @param directory        The directory holding the journal segments.
+     * @param segmentSize      The size in bytes of each segment file.
+     * @param retainedSegments The number of segments kept before the oldest is deleted.
+     * @param fsyncInterval    The interval in milliseconds between forced writes to disk.
+     * @param replayCount      The number of messages replayed on login unless the client asks otherwise.
+     * @throws IOException If the journal cannot be opened.
+     */
+    public void enableJournal(Path directory, int segmentSize, int retainedSegments, long fsyncInterval,
+                              int replayCount) throws IOException {
+        MessageJournal previous = this.journal;
+        if (previous != null) {
+            previous.close();
+        }
+        this.replayCount = replayCount;
+        this.journal = new MessageJournal(directory, segmentSize, retainedSegments, fsyncInterval);
+    }
+
+    /**
+     * Sets how often a heartbeat client that has gone quiet is sent #ping, and how long any watched connection
+     * may stay silent before it is closed. Takes effect at each connection's next check.
+     *
+     * @param intervalMillis The heartbeat interval in milliseconds.
+     * @param timeoutMillis  The idle timeout in milliseconds; should be a few heartbeat intervals.
+     */
+    public void setHeartbeat(long intervalMillis, long timeoutMillis) {
+        if (intervalMillis <= 0 || timeoutMillis <= 0) {
+            throw new IllegalArgumentException("Heartbeat interval and idle timeout must be positive");
+        }
+        this.heartbeatInterval = intervalMillis;
+        this.idleTimeout = timeoutMillis;
+    }
+
+    /**
+     * Sets how long a new connection has to complete its login before it is closed.
+     * Applies to connections accepted from now on.
+     *
+     * @param timeoutMillis The login deadline in milliseconds.
+     */
+    public void setLoginTimeout(long timeoutMillis) {
+        if (timeoutMillis <= 0) {
+            throw new IllegalArgumentException("Login timeout must be positive");
+        }
+        this.loginTimeout = timeoutMillis;
+    }
+
+    /**
+     * Joins this server to a cluster. The server opens a link to every peer and relays the messages published
+     * on it to them, while messages relayed by the peers are delivered to local clients; login IDs are unique
+     * across the whole cluster. Every node must be started with the addresses of all the others and the same
+     * secret, which a connection must present to be accepted as a node.
+     *
+     * @param nodeId The unique ID of this node within the cluster.
+     * @param peers  The other nodes, each as host:port.
+     * @param secret The secret shared by the nodes of the cluster.
+     * @throws IllegalArgumentException If the secret is missing or contains whitespace.
+     */
+    public void enableCluster(String nodeId, List<String> peers, String secret) {
+        if (secret == null || secret.isEmpty() || secret.chars().anyMatch(Character::isWhitespace)) {
+            throw new IllegalArgumentException("A cluster secret without whitespace is required");
+        }
+        Cluster previous = this.cluster;
+        if (previous != null) {
+            previous.stop();
+        }
+        Cluster cluster = new Cluster(nodeId, secret, this);
+        this.cluster = cluster;
+        cluster.connect(peers);
+    }
+
     /**
      * Handles messages received from a connected client.
-     * This method processes login commands and broadcasts valid messages to all other clients.
+     * This method processes login and client commands such as #whisper and #join,
+     * and publishes other messages to the sender's current channel.
      * It also enforces the rule that clients must log in before sending messages.
      *
      * @param msg    The message received from the client.
@@ -48,45 +232,554 @@ public class EchoServer extends AbstractServer {
      */
     @Override
     public void handleMessageFromClient(Object msg, ConnectionToClient client) {
-        String s = String.valueOf(msg).trim();
+        long handledAt = System.nanoTime();
+        metrics.received(ServerMetrics.statsOf(client), msg, handledAt);
+        ChatMessage message;
+        try {
+            Outbox outbox = (Outbox) client.getInfo("outbox");
+            message = MessageCodecs.decode(msg, outbox == null ? MessageCodecs.LEGACY : outbox.codec());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Malformed message: " + e.getMessage());
+            return;
+        }
         String loginId = (String) client.getInfo("loginId");
 
-        Scanner scanner = new Scanner(s);
-        String command;
-
-        if (scanner.hasNext()) {
-            command = scanner.next();
-        } else {
-            command = "";
+        Cluster cluster = this.cluster;
+        if (cluster != null && client.getInfo("peer") != null) {
+            if (message.getText().equals("#ping")) {
+                deliver(client, PONG);
+            } else {
+                cluster.handle(client, message.getText());
+            }
+            return;
         }
 
         if (loginId == null) {
-            if (command.equals("#login") && scanner.hasNext()) {
-                String id = scanner.next().trim();
-                client.setInfo("loginId", id);
+            if (message.getType() == MessageType.LOGIN) {
+                LoginRequest request = LoginRequest.parse(message.getText());
+                if (request != null) {
+                    login(client, request);
+                    return;
+                }
+            }
+
+            reject(client, "You must login first using '#login <loginId>'");
+            return;
+        }
+
+        if (message.getType() == MessageType.LOGIN) {
+            reject(client, "#login only allowed at initial connection");
+            return;
+        }
+
+        if (message.getType() == MessageType.COMMAND && message.getText().equals("#pong")) {
+            return;
+        }
+
+        if (message.getType() == MessageType.COMMAND && message.getText().equals("#ping")) {
+            deliver(client, PONG);
+            return;
+        }
+
+        if (!admit(client)) {
+            if (message.getType() == MessageType.COMMAND && message.getText().startsWith("#send ")) {
+                CommandLine args = new CommandLine(message.getText());
+                args.next();
+                nack(client, args.next(), "Rate limit exceeded");
+            }
+            return;
+        }
+
+        try {
+            if (message.getType() == MessageType.COMMAND && clientCommands.dispatch(client, message.getText())) {
                 return;
             }
+        } catch (IOException e) {
+            System.err.println("Connection error: " + e.getMessage());
+            return;
+        }
 
-            try {
-                client.sendToClient("You must login first using '#login <loginId>'");
-                client.close();
-            } catch (IOException e) {
-                System.err.println("Connection error: " + e.getMessage());
+        chat(client, loginId, message.getText(), handledAt);
+    }
+
+    /**
+     * Publishes a chat line from a logged-in client to the client's current channel.
+     *
+     * @param client    The sending connection.
+     * @param loginId   The sender's login ID.
+     * @param text      The chat text.
+     * @param handledAt The System.nanoTime at which the server started handling the message.
+     * @return False if the client is not in any channel and the line was not published.
+     */
+    private boolean chat(ConnectionToClient client, String loginId, String text, long handledAt) {
+        String channel = (String) client.getInfo("channel");
+        if (channel == null) {
+            deliver(client, new ChatMessage(MessageType.NOTICE, "You are not in any channel. Use #join <channel>"));
+            return false;
+        }
+        publish(channel, new ChatMessage(MessageType.CHAT, "[" + channel + "] " + loginId + ": " + text), handledAt);
+        return true;
+    }
+
+    /**
+     * Publishes a chat line sent with #send [sequence] [text] and acknowledges it to the sender with #ack [sequence],
+     * or with #nack [sequence] [reason] if it was not published.
+     * The acknowledgement is queued on the sender's shard, so the sender gets its own copy of the message first.
+     *
+     * @param client The sending connection.
+     * @param args   The command arguments: the client's sequence number followed by the text.
+     */
+    private void sendCommand(ConnectionToClient client, CommandLine args) {
+        long handledAt = System.nanoTime();
+        String sequence = args.next();
+        if (sequence == null) {
+            deliver(client, new ChatMessage(MessageType.NOTICE, "Usage: #send <sequence> <message>"));
+            return;
+        }
+        if (!chat(client, (String) client.getInfo("loginId"), args.rest(), handledAt)) {
+            nack(client, sequence, "Not in any channel");
+            return;
+        }
+        ChatMessage ack = new ChatMessage(MessageType.COMMAND, "#ack " + sequence);
+        broadcaster.execute(client, () -> deliver(client, ack));
+    }
+
+    /**
+     * Tells the sender of a #send message that it was not published, with #nack [sequence] [reason].
+     * Like #ack it is queued on the sender's shard, so the sender receives both in the order it sent the messages.
+     *
+     * @param client   The sending connection.
+     * @param sequence The client's sequence number of the message, or null if it sent none.
+     * @param reason   Why the message was not published.
+     */
+    private void nack(ConnectionToClient client, String sequence, String reason) {
+        if (sequence == null) {
+            return;
+        }
+        ChatMessage nack = new ChatMessage(MessageType.COMMAND, "#nack " + sequence + " " + reason);
+        broadcaster.execute(client, () -> deliver(client, nack));
+    }
+
+    /**
+     * Enforces the per-login and global rate limits on a message from a logged-in client, before it can be
+     * amplified by fan-out. Within the limits this costs two compare-and-sets and allocates nothing.
+     * Over a limit, the configured action either holds this client's connection thread until the message is due,
+     * drops the message with a notice, or disconnects the client.
+     *
+     * @param client The sending connection.
+     * @return False if the message must not be handled.
+     */
+    private boolean admit(ConnectionToClient client) {
+        TokenBucket bucket = (TokenBucket) client.getInfo("bucket");
+        long now = System.nanoTime();
+        RateLimitAction action = rateLimitAction;
+        if (action == RateLimitAction.DELAY) {
+            long wait = Math.max(bucket.reserve(now), globalBucket.reserve(now));
+            if (wait > 0) {
+                rateLimited.increment();
+                LockSupport.parkNanos(wait);
             }
+            return true;
+        }
+        if (bucket.tryAcquire(now) == 0) {
+            if (globalBucket.tryAcquire(now) == 0) {
+                return true;
+            }
+            bucket.refund();
+        }
+        rateLimited.increment();
+        if (action == RateLimitAction.DISCONNECT) {
+            reject(client, "Rate limit exceeded");
+        } else {
+            deliver(client, new ChatMessage(MessageType.NOTICE, "Rate limit exceeded, message dropped"));
+        }
+        return false;
+    }
+
+    /**
+     * Sends a notice to a client, followed by #rejected so that it does not reconnect automatically, and closes
+     * its connection once both and anything queued before them have been written.
+     *
+     * @param client The connection to reject.
+     * @param reason The notice explaining why.
+     */
+    private void reject(ConnectionToClient client, String reason) {
+        Outbox outbox = (Outbox) client.getInfo("outbox");
+        if (outbox != null) {
+            long now = System.nanoTime();
+            outbox.offer(new EncodedMessage(new ChatMessage(MessageType.NOTICE, reason), now));
+            outbox.offerAndClose(new EncodedMessage(REJECTED, now));
+        }
+    }
+
+    /**
+     * Delivers a private message to the client logged in under a login ID.
+     * The recipient is found through the login index, so the cost does not depend on the number of clients;
+     * recipients logged in on another cluster node are reached through the peer links.
+     * The whisper is delivered on the recipient's shard, keeping it in order with the sender's broadcasts.
+     *
+     * @param sender The connection that issued #whisper.
+     * @param args   The command arguments: the recipient login ID followed by the message.
+     */
+    private void whisper(ConnectionToClient sender, CommandLine args) {
+        String target = args.next();
+        String text = args.rest();
+        if (target == null || text.isEmpty()) {
+            deliver(sender, new ChatMessage(MessageType.NOTICE, "Usage: #whisper <loginId> <message>"));
             return;
         }
+        String from = (String) sender.getInfo("loginId");
+        ConnectionToClient recipient = logins.get(target);
+        if (recipient != null) {
+            ChatMessage whisper = new ChatMessage(MessageType.CHAT, from + " (whisper): " + text);
+            broadcaster.execute(recipient, () -> deliver(recipient, whisper));
+            return;
+        }
+        Cluster cluster = this.cluster;
+        if (cluster == null || !cluster.whisper(target, from, text)) {
+            deliver(sender, new ChatMessage(MessageType.NOTICE, "No user logged in as '" + target + "'"));
+        }
+    }
 
-        if (command.equals("#login")) {
-            try {
-                client.sendToClient("#login only allowed at initial connection");
-                client.close();
-            } catch (IOException e) {
-                System.err.println("Connection error: " + e.getMessage());
+    /**
+     * Completes the login of a client: claims its login ID across the cluster, switches it to the requested codec,
+     * joins it to its channels and catches it up on what it missed.
+     * A codec other than legacy is acknowledged with #codec name before anything else is sent in it.
+     * The user is added to the presence roster; a client that asked for presence updates is sent the roster.
+     * A client resuming a session of this server run is sent the kept messages it missed, followed by
+     * #seq [epoch] [sequence] [channels]; any other client gets the journal replay.
+     * The client joins its channels, and the server-wide recipients, in the same step as the last sequence number
+     * is read, while its outbox is held: live messages queue up behind the catch-up and are written once it is
+     * released, so history never interleaves with them. Live messages numbered before the catch-up point may
+     * still arrive after the #seq report; clients ignore sequence numbers they have already seen.
+     * A connection logging in with peer=on and the cluster secret is another cluster node; it is marked as such
+     * and told this node's ID with #node [nodeId]. Without the secret it is rejected.
+     *
+     * @param client  The connection logging in.
+     * @param request The parsed #login arguments.
+     */
+    private void login(ConnectionToClient client, LoginRequest request) {
+        Cluster cluster = this.cluster;
+        if (request.peer) {
+            if (cluster == null) {
+                reject(client, "This server is not part of a cluster");
+            } else if (!cluster.authenticates(request.secret)) {
+                reject(client, "Cluster authentication failed");
+            } else {
+                cancelLoginDeadline(client);
+                client.setInfo("peer", request.loginId);
+                deliver(client, new ChatMessage(MessageType.COMMAND, "#node " + cluster.nodeId));
+                deliver(client, command("#heartbeat " + heartbeatInterval + " " + idleTimeout));
+            }
+            return;
+        }
+        if ((cluster != null && cluster.isClaimedRemotely(request.loginId))
+                || logins.putIfAbsent(request.loginId, client) != null) {
+            reject(client, "Login ID '" + request.loginId + "' is already in use");
+            return;
+        }
+        cancelLoginDeadline(client);
+        client.setInfo("loginId", request.loginId);
+        client.setInfo("bucket", new TokenBucket(userLimit));
+        if (request.heartbeat) {
+            client.setInfo("heartbeat", Boolean.TRUE);
+        }
+        if (cluster != null) {
+            cluster.claim(request.loginId);
+        }
+        Outbox outbox = (Outbox) client.getInfo("outbox");
+        outbox.hold();
+        List<EncodedMessage> catchUp = new ArrayList<>();
+        if (request.codec != MessageCodecs.LEGACY) {
+            outbox.useCodec(request.codec);
+            catchUp.add(command("#codec " + request.codec.name()));
+        }
+        if (request.acks) {
+            catchUp.add(command("#acks on"));
+        }
+        if (request.heartbeat) {
+            catchUp.add(command("#heartbeat " + heartbeatInterval + " " + idleTimeout));
+        }
+        metrics.login.record(System.nanoTime() - ServerMetrics.statsOf(client).connectedAt);
+        presence.joined(request.loginId);
+        if (request.presence) {
+            presenceSubscribers.add(client);
+            presence.snapshot(line -> {
+                ChatMessage roster = new ChatMessage(MessageType.COMMAND, line);
+                broadcaster.execute(client, () -> deliver(client, roster));
+            });
+        }
+        String[] requested = request.channels == null ? new String[]{Channels.DEFAULT} : request.channels;
+        long upTo;
+        synchronized (publishLock) {
+            for (String channel : requested) {
+                if (!channel.isEmpty()) {
+                    channels.join(channel, client);
+                }
             }
+            everyone.add(client);
+            upTo = recent.last();
+        }
+        client.setInfo("channel", requested.length > 0 && !requested[0].isEmpty() ? requested[0] : null);
+        Set<String> joined = channels.channelsOf(client);
+        Predicate<String> wanted = channel -> channel.isEmpty() || joined.contains(channel);
+
+        if (request.resumeEpoch == recent.epoch()) {
+            long missed = recent.replay(request.resumeAfter, upTo, wanted,
+                    message -> catchUp.add(new EncodedMessage(message, System.nanoTime())));
+            if (missed > 0) {
+                catchUp.add(notice(missed + " messages sent while you were away are no longer available."));
+            }
+            catchUp.add(sequenceReport(client, upTo, joined));
+            outbox.release(catchUp);
             return;
         }
+        if (request.resumeEpoch > 0) {
+            catchUp.add(notice("The server has restarted; messages sent while you were away could not be recovered."));
+        }
+        Runnable release = () -> {
+            if (request.resumeEpoch >= 0) {
+                catchUp.add(sequenceReport(client, upTo, joined));
+            }
+            outbox.release(catchUp);
+        };
+        MessageJournal journal = this.journal;
+        if (journal == null) {
+            release.run();
+            return;
+        }
+        journal.replay(request.history >= 0 ? Math.min(request.history, MAX_HISTORY) : replayCount, request.since,
+                wanted, entry -> catchUp.add(new EncodedMessage(new ChatMessage(MessageType.CHAT, entry.text),
+                        System.nanoTime())), release);
+    }
+
+    private static EncodedMessage notice(String text) {
+        return new EncodedMessage(new ChatMessage(MessageType.NOTICE, text), System.nanoTime());
+    }
 
-        sendToAllClients(loginId + ": " + s);
+    private static EncodedMessage command(String text) {
+        return new EncodedMessage(new ChatMessage(MessageType.COMMAND, text), System.nanoTime());
+    }
+
+    /**
+     * Builds the #seq [epoch] [sequence] [channels] line that tells a client the server run and last sequence
+     * number it has been caught up to, and its channels with the current one first, so that after a reconnect
+     * it can resume from there.
+     *
+     * @param client   The destination connection.
+     * @param sequence The last sequence number the client has been caught up to.
+     * @param joined   The channels the client has joined.
+     * @return The report, ready to be written.
+     */
+    private EncodedMessage sequenceReport(ConnectionToClient client, long sequence, Set<String> joined) {
+        String current = (String) client.getInfo("channel");
+        List<String> ordered = new ArrayList<>(joined.size());
+        if (current != null) {
+            ordered.add(current);
+        }
+        for (String channel : joined) {
+            if (!channel.equals(current)) {
+                ordered.add(channel);
+            }
+        }
+        String line = "#seq " + recent.epoch() + " " + sequence + " " + String.join(",", ordered);
+        return command(line);
+    }
+
+    /**
+     * Sends a message to every logged-in client, each in the codec negotiated for its connection,
+     * and relays it to the other cluster nodes.
+     *
+     * @param message The message to broadcast.
+     */
+    private void broadcast(ChatMessage message) {
+        publish("", message, System.nanoTime());
+    }
+
+    /**
+     * Sends a message that originated on this node to the subscribers of a channel, or to every client if the
+     * channel is empty, and relays it to the other cluster nodes.
+     *
+     * @param channel   The channel to publish to, or the empty string for every client.
+     * @param message   The message to publish.
+     * @param handledAt The System.nanoTime at which the server started handling the message.
+     */
+    private void publish(String channel, ChatMessage message, long handledAt) {
+        fanOut(channel, message, handledAt);
+        Cluster cluster = this.cluster;
+        if (cluster != null) {
+            cluster.relay(channel, message.getText());
+        }
+    }
+
+    /**
+     * Journals and numbers a message and hands it to the local recipients: the subscribers of a channel, or every
+     * logged-in client if the channel is empty.
+     * The message is encoded once per codec and the same wire object is handed to every recipient.
+     * Delivery is split over the broadcaster's shards, which walk their share of the recipients in parallel;
+     * the broadcast latency is recorded when the last shard finishes. Numbering and handing to the shards happen
+     * under one lock, so every recipient receives messages in sequence order and a client resuming after the
+     * highest sequence number it has seen cannot skip one.
+     * Logged-in clients receive it through their outbox, so a stalled client never blocks the broadcaster.
+     * As with sendToAllClients, a failure on one connection does not stop delivery to the others.
+     *
+     * @param channel   The channel to publish to, or the empty string for every client.
+     * @param message   The message to publish.
+     * @param handledAt The System.nanoTime at which the server started handling the message.
+     */
+    private void fanOut(String channel, ChatMessage message, long handledAt) {
+        MessageJournal journal = this.journal;
+        if (journal != null) {
+            journal.append(channel, message.getText());
+        }
+        synchronized (publishLock) {
+            Broadcaster.Group recipients = channel.isEmpty() ? everyone : channels.subscribersOf(channel);
+            EncodedMessage encoded = new EncodedMessage(recent.append(channel, message), handledAt);
+            broadcaster.broadcast(recipients, client -> deliver(client, encoded),
+                    () -> metrics.broadcast.record(System.nanoTime() - handledAt));
+        }
+    }
+
+    /**
+     * Sends a roster delta to every client that asked for presence updates. Called with the roster locked,
+     * so it only hands the delta to the shards, which keeps deltas in version order behind each snapshot.
+     *
+     * @param line The #presence delta.
+     */
+    private void publishPresence(String line) {
+        EncodedMessage encoded = new EncodedMessage(new ChatMessage(MessageType.COMMAND, line), System.nanoTime());
+        broadcaster.broadcast(presenceSubscribers, client -> deliver(client, encoded), () -> {
+        });
+    }
+
+    /**
+     * Delivers a message relayed by another cluster node to the local recipients, without relaying it further.
+     *
+     * @param channel The channel it was published to, or the empty string for every client.
+     * @param text    The message text.
+     */
+    void deliverRelayed(String channel, String text) {
+        fanOut(channel, new ChatMessage(MessageType.CHAT, text), System.nanoTime());
+    }
+
+    /**
+     * Delivers a whisper forwarded by another cluster node if the recipient is logged in here.
+     *
+     * @param target The recipient login ID.
+     * @param sender The sender login ID.
+     * @param text   The message text.
+     */
+    void whisperLocal(String target, String sender, String text) {
+        ConnectionToClient recipient = target == null ? null : logins.get(target);
+        if (recipient != null) {
+            ChatMessage whisper = new ChatMessage(MessageType.CHAT, sender + " (whisper): " + text);
+            broadcaster.execute(recipient, () -> deliver(recipient, whisper));
+        }
+    }
+
+    /**
+     * Disconnects the local user holding a login ID.
+     *
+     * @param loginId The login ID to evict.
+     * @param reason  The notice sent to the user.
+     */
+    void evict(String loginId, String reason) {
+        ConnectionToClient client = logins.get(loginId);
+        if (client != null) {
+            reject(client, reason);
+        }
+    }
+
+    /**
+     * Returns the login IDs of the users logged in on this server.
+     *
+     * @return A live view of the local login IDs.
+     */
+    Set<String> localLogins() {
+        return logins.keySet();
+    }
+
+    /**
+     * Subscribes a client to a channel and makes it the channel the client's messages go to.
+     *
+     * @param client The connection that issued #join.
+     * @param args   The command arguments: the channel name.
+     */
+    private void joinChannel(ConnectionToClient client, CommandLine args) {
+        String channel = args.next();
+        if (channel == null) {
+            deliver(client, new ChatMessage(MessageType.NOTICE, "Usage: #join <channel>"));
+            return;
+        }
+        channels.join(channel, client);
+        client.setInfo("channel", channel);
+        deliver(client, new ChatMessage(MessageType.NOTICE, "Joined [" + channel + "]"));
+    }
+
+    /**
+     * Unsubscribes a client from a channel, by default its current one.
+     * If the current channel is left, another joined channel becomes current.
+     *
+     * @param client The connection that issued #leave.
+     * @param args   The command arguments: an optional channel name.
+     */
+    private void leaveChannel(ConnectionToClient client, CommandLine args) {
+        String current = (String) client.getInfo("channel");
+        String channel = args.hasNext() ? args.next() : current;
+        if (channel == null || !channels.leave(channel, client)) {
+            deliver(client, new ChatMessage(MessageType.NOTICE, "You are not in channel [" + channel + "]"));
+            return;
+        }
+        if (channel.equals(current)) {
+            Iterator<String> remaining = channels.channelsOf(client).iterator();
+            client.setInfo("channel", remaining.hasNext() ? remaining.next() : null);
+        }
+        deliver(client, new ChatMessage(MessageType.NOTICE, "Left [" + channel + "]"));
+    }
+
+    /**
+     * Switches the current channel of a client to one it has joined, or reports its channels if no name is given.
+     *
+     * @param client The connection that issued #channel.
+     * @param args   The command arguments: an optional channel name.
+     */
+    private void switchChannel(ConnectionToClient client, CommandLine args) {
+        if (!args.hasNext()) {
+            deliver(client, new ChatMessage(MessageType.NOTICE, "Current channel: [" + client.getInfo("channel")
+                    + "], joined: " + channels.channelsOf(client)));
+            return;
+        }
+        String channel = args.next();
+        if (!channels.channelsOf(client).contains(channel)) {
+            deliver(client, new ChatMessage(MessageType.NOTICE, "Join [" + channel + "] first using #join " + channel));
+            return;
+        }
+        client.setInfo("channel", channel);
+        deliver(client, new ChatMessage(MessageType.NOTICE, "Current channel: [" + channel + "]"));
+    }
+
+    /**
+     * Delivers a message to one client through its outbox.
+     *
+     * @param client  The destination connection.
+     * @param message The message to deliver.
+     */
+    private void deliver(ConnectionToClient client, ChatMessage message) {
+        deliver(client, new EncodedMessage(message, System.nanoTime()));
+    }
+
+    /**
+     * Hands a message to a client's outbox, which every connection gets when it is accepted, so that a single
+     * writer at a time writes to it. Write failures are ignored, as in sendToAllClients.
+     *
+     * @param client  The destination connection.
+     * @param message The message to deliver.
+     */
+    private void deliver(ConnectionToClient client, EncodedMessage message) {
+        Outbox outbox = (Outbox) client.getInfo("outbox");
+        if (outbox != null) {
+            outbox.offer(message);
+        }
     }
 
     /**
@@ -104,7 +797,7 @@ public class EchoServer extends AbstractServer {
             } else {
                 String msg = "SERVER MSG> " + message;
                 serverConsole.display(msg);
-                sendToAllClients(msg);
+                broadcast(new ChatMessage(MessageType.CHAT, msg));
             }
         } catch (IOException exception) {
             serverConsole.display("Error sending message: " + exception.getMessage());
@@ -120,78 +813,365 @@ public class EchoServer extends AbstractServer {
      * - #setport [port]: Sets a new port (server must be closed first).
      * - #start: Starts listening for new connections.
      * - #getport: Displays the current port number.
+     * - #whisper [loginId] [message]: Sends a private message to one client.
+     * - #stats [loginId]: Displays server-wide traffic, gauges and latency percentiles, or the counters of one client.
+     * - #peers: Displays the cluster node ID, the state of each peer link and the number of remote users.
+     * - #ratelimit [user|global [rate] [burst]] [action [delay|drop|disconnect]]: Displays or changes the
+     *   per-login and global message rate limits (rate 0 means unlimited) and what happens to excess messages.
+     * - #queues: Displays the outbound queue depth and drop count of every logged-in client.
+     * - #setqueue [capacity] [policy]: Sets the queue high-water mark and overflow policy
+     *   (drop-oldest, coalesce or disconnect) for current and future clients.
      *
      * @param command The command string entered by the administrator.
      * @throws IOException If an error occurs while executing the command.
      */
     private void handleCommand(String command) throws IOException {
-        Scanner input = new Scanner(command.trim());
-        String cmd = input.next();
-
-        if (cmd.equals("#quit")) {
-            System.exit(0);
+        if (!commands.dispatch(serverConsole, command.trim())) {
+            serverConsole.display("Unknown command: " + command);
+        }
+    }
 
-        } else if (cmd.equals("#stop")) {
+    /**
+     * Registers the console commands handled by handleCommand and the commands accepted from logged-in clients.
+     */
+    private void registerCommands() {
+        commands.register("#quit", (console, args) -> System.exit(0));
+        commands.register("#stop", (console, args) -> {
             stopListening();
-            serverConsole.display("Server stopped listening for new connections.");
-
-        } else if (cmd.equals("#close")) {
+            console.display("Server stopped listening for new connections.");
+        });
+        commands.register("#close", (console, args) -> {
             close();
-            serverConsole.display("Server closed.");
+            console.display("Server closed.");
+        });
+        commands.register("#setport", this::setPortCommand);
+        commands.register("#start", (console, args) -> {
+            if (!isListening()) {
+                listen();
+            } else {
+                console.display("Server is already listening.");
+            }
+        });
+        commands.register("#getport", (console, args) -> console.display("Current port: " + getPort()));
+        commands.register("#queues", (console, args) -> displayQueues());
+        commands.register("#stats", this::statsCommand);
+        commands.register("#ratelimit", this::rateLimitCommand);
+        commands.register("#peers", (console, args) -> {
+            Cluster cluster = this.cluster;
+            if (cluster == null) {
+                console.display("Clustering is not enabled.");
+                return;
+            }
+            for (String line : cluster.describe().split(System.lineSeparator())) {
+                console.display(line);
+            }
+        });
+        commands.register("#setqueue", this::setQueueCommand);
+        commands.register("#whisper", (console, args) -> {
+            String target = args.next();
+            String text = args.rest();
+            ConnectionToClient recipient = target == null ? null : logins.get(target);
+            if (text.isEmpty()) {
+                console.display("Usage: #whisper <loginId> <message>");
+            } else if (recipient == null) {
+                console.display("No user logged in as '" + target + "'");
+            } else {
+                deliver(recipient, new ChatMessage(MessageType.CHAT, "SERVER MSG (whisper)> " + text));
+            }
+        });
+
+        clientCommands.register("#whisper", this::whisper);
+        clientCommands.register("#send", this::sendCommand);
+        clientCommands.register("#join", this::joinChannel);
+        clientCommands.register("#leave", this::leaveChannel);
+        clientCommands.register("#channel", this::switchChannel);
+    }
+
+    /**
+     * Changes the port the server listens on from the next #start. OCSF keeps its server socket until the server
+     * is closed, so the port cannot change while the server is listening.
+     *
+     * @param console The console to report to.
+     * @param args    The command arguments: the new port.
+     */
+    private void setPortCommand(ChatIF console, CommandLine args) {
+        if (this.isListening()) {
+            console.display("Server must be closed before changing port.");
+            return;
+        }
+        if (!args.hasNext()) {
+            console.display("Usage: #setport <port>");
+            return;
+        }
+        String portStr = args.next();
+        try {
+            int port = Integer.parseInt(portStr);
+            setPort(port);
+            console.display("Port set to: " + getPort());
+        } catch (NumberFormatException e) {
+            console.display("Port must be a number. Usage: #setport <port>");
+        }
+    }
 
-        } else if (cmd.equals("#setport")) {
-            if (this.isListening()) {
-                serverConsole.display("Server must be closed before changing port.");
+    /**
+     * Displays the server-wide metrics, or the traffic counters of one logged-in client.
+     *
+     * @param console The console to report to.
+     * @param args    The command arguments: an optional login ID.
+     */
+    private void statsCommand(ChatIF console, CommandLine args) {
+        if (!args.hasNext()) {
+            for (String line : metrics.toString().split(System.lineSeparator())) {
+                console.display(line);
+            }
+            return;
+        }
+        String loginId = args.next();
+        ConnectionToClient client = logins.get(loginId);
+        if (client == null) {
+            console.display("No user logged in as '" + loginId + "'");
+        } else {
+            console.display(loginId + ": " + ServerMetrics.statsOf(client));
+        }
+    }
+
+    /**
+     * Displays the rate limits and the number of limited messages, or changes the per-login limit,
+     * the global limit or the action taken on excess messages. A rate without a burst gets a burst of one second.
+     *
+     * @param console The console to report to.
+     * @param args    The command arguments: user or global with a rate and optional burst, or action with its name.
+     */
+    private void rateLimitCommand(ChatIF console, CommandLine args) {
+        String scope = args.next();
+        String value = args.next();
+        if (scope == null) {
+            console.display("Per login: " + userLimit + "; global: " + globalLimit + "; action: " + rateLimitAction
+                    + "; limited messages: " + rateLimited.sum());
+            return;
+        }
+        try {
+            if (value != null && (scope.equals("user") || scope.equals("global"))) {
+                double rate = Double.parseDouble(value);
+                String burst = args.next();
+                RateLimit limit = scope.equals("user") ? userLimit : globalLimit;
+                limit.set(rate, burst == null ? (int) Math.max(1, Math.ceil(rate)) : Integer.parseInt(burst));
+                console.display((scope.equals("user") ? "Per-login" : "Global") + " limit set to " + limit + ".");
                 return;
             }
-            if (!input.hasNext()) {
-                serverConsole.display("Usage: #setport <port>");
+            if (value != null && scope.equals("action")) {
+                rateLimitAction = RateLimitAction.parse(value);
+                console.display("Rate limit action set to " + rateLimitAction + ".");
                 return;
             }
-            String portStr = input.next();
-            try {
-                int port = Integer.parseInt(portStr);
-                setPort(port);
-                serverConsole.display("Port set to: " + getPort());
-            } catch (NumberFormatException e) {
-                serverConsole.display("Port must be a number. Usage: #setport <port>");
+        } catch (IllegalArgumentException e) {
+            // fall through to the usage message
+        }
+        console.display("Usage: #ratelimit [user|global <rate> [burst]] [action delay|drop|disconnect]");
+    }
+
+    /**
+     * Changes the outbound queue capacity and, optionally, the overflow policy of every client.
+     *
+     * @param console The console to report to.
+     * @param args    The command arguments: the capacity followed by an optional policy name.
+     */
+    private void setQueueCommand(ChatIF console, CommandLine args) {
+        if (!args.hasNext()) {
+            console.display("Usage: #setqueue <capacity> [drop-oldest|coalesce|disconnect]");
+            return;
+        }
+        try {
+            int capacity = Integer.parseInt(args.next());
+            OverflowPolicy policy = args.hasNext() ? OverflowPolicy.parse(args.next()) : overflowPolicy;
+            if (capacity <= 0) {
+                console.display("Capacity must be positive.");
+                return;
             }
+            setQueuePolicy(capacity, policy);
+            console.display("Queue capacity set to " + capacity + ", policy " + policy + ".");
+        } catch (IllegalArgumentException e) {
+            console.display("Usage: #setqueue <capacity> [drop-oldest|coalesce|disconnect]");
+        }
+    }
 
-        } else if (cmd.equals("#start")) {
-            if (!isListening()) {
-                listen();
-            } else {
-                serverConsole.display("Server is already listening.");
+    /**
+     * Sets the outbound queue high-water mark and overflow policy, applying them to every existing outbox
+     * and to clients that log in later.
+     *
+     * @param capacity The maximum number of queued messages per client.
+     * @param policy   What to do when a client's queue is full.
+     */
+    public void setQueuePolicy(int capacity, OverflowPolicy policy) {
+        this.queueCapacity = capacity;
+        this.overflowPolicy = policy;
+        for (Thread thread : getClientConnections()) {
+            Outbox outbox = (Outbox) ((ConnectionToClient) thread).getInfo("outbox");
+            if (outbox != null) {
+                outbox.configure(capacity, policy);
             }
+        }
+    }
 
-        } else if (cmd.equals("#getport")) {
-            serverConsole.display("Current port: " + getPort());
+    /**
+     * Displays the queue depth and drop count of every logged-in client, followed by the totals.
+     */
+    private void displayQueues() {
+        int clients = 0;
+        long depth = 0;
+        long dropped = 0;
+        for (Thread thread : getClientConnections()) {
+            ConnectionToClient client = (ConnectionToClient) thread;
+            Outbox outbox = (Outbox) client.getInfo("outbox");
+            if (outbox == null || client.getInfo("loginId") == null) {
+                continue;
+            }
+            serverConsole.display(client.getInfo("loginId") + ": depth " + outbox.depth() + ", dropped " + outbox.dropped());
+            clients++;
+            depth += outbox.depth();
+            dropped += outbox.dropped();
+        }
+        serverConsole.display(clients + " queues, total depth " + depth + ", total dropped " + dropped
+                + " (capacity " + queueCapacity + ", policy " + overflowPolicy + ")");
+    }
 
-        } else {
-            serverConsole.display("Unknown command: " + command);
+    /**
+     * Releases the per-connection state of a client that has gone away.
+     *
+     * @param client The connection that was closed.
+     */
+    private void release(ConnectionToClient client) {
+        cancelLoginDeadline(client);
+        String loginId = (String) client.getInfo("loginId");
+        Cluster cluster = this.cluster;
+        if (loginId != null && logins.remove(loginId, client)) {
+            presence.left(loginId);
+            if (cluster != null) {
+                cluster.release(loginId);
+            }
+        }
+        presenceSubscribers.remove(client);
+        if (cluster != null && client.getInfo("peer") != null) {
+            cluster.peerLost(client);
+        }
+        channels.leaveAll(client);
+        everyone.remove(client);
+        Outbox outbox = (Outbox) client.getInfo("outbox");
+        if (outbox != null) {
+            outbox.close();
         }
     }
 
     /**
      * Invoked when a client successfully connects to the server.
+     * Gives the connection its outbox, in the legacy codec until login, and starts watching it for idleness.
      *
      * @param client The connection object representing the connected client.
      */
     @Override
     protected void clientConnected(ConnectionToClient client) {
+        ServerMetrics.statsOf(client);
+        client.setInfo("outbox", new Outbox(client, MessageCodecs.LEGACY, writers, metrics, queueCapacity,
+                overflowPolicy));
+        client.setInfo("loginDeadline", timers.schedule(() -> checkLogin(client), loginTimeout));
+        timers.schedule(() -> checkIdle(client), Math.min(heartbeatInterval, idleTimeout));
         System.out.println("Client connected.");
     }
 
+    /**
+     * Closes a connection that has not logged in by its login deadline, on the timer wheel thread, so that
+     * connections which never log in release their threads long before the idle timeout.
+     *
+     * @param client The connection accepted one login timeout ago.
+     */
+    private void checkLogin(ConnectionToClient client) {
+        if (client.isAlive() && client.getInfo("loginId") == null && client.getInfo("peer") == null) {
+            metrics.loginTimeouts.increment();
+            try {
+                client.close();
+            } catch (IOException e) {
+                System.err.println("Connection error: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Cancels the login deadline of a connection that has logged in or gone away, so the wheel drops it at its next visit
+     * to the bucket instead of running the check.
+     *
+     * @param client The connection.
+     */
+    private void cancelLoginDeadline(ConnectionToClient client) {
+        TimerWheel.Timeout deadline = (TimerWheel.Timeout) client.getInfo("loginDeadline");
+        if (deadline != null) {
+            deadline.cancel();
+            client.setInfo("loginDeadline", null);
+        }
+    }
+
+    /**
+     * Checks a watched connection when its timer fires, on the timer wheel thread.
+     * A connection that has sent nothing for the idle timeout is closed, which reports it through
+     * clientDisconnected; this covers connections that never log in, heartbeat clients that stopped answering and
+     * peer nodes, whose links ping on their own. A heartbeat client quiet for a heartbeat interval is sent #ping.
+     * Other logged-in clients stop being watched, since without heartbeats an idle user cannot be told apart from
+     * a dead connection.
+     * Rather than being rescheduled on every message, the timer is rescheduled here from the time of the last one.
+     *
+     * @param client The watched connection.
+     */
+    private void checkIdle(ConnectionToClient client) {
+        boolean heartbeat = client.getInfo("heartbeat") != null;
+        if (!client.isAlive() || (client.getInfo("loginId") != null && !heartbeat)) {
+            return;
+        }
+        long idle = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - ServerMetrics.statsOf(client).lastReceived);
+        long timeout = idleTimeout;
+        if (idle >= timeout) {
+            metrics.idleClosed.increment();
+            try {
+                client.close();
+            } catch (IOException e) {
+                System.err.println("Connection error: " + e.getMessage());
+            }
+            return;
+        }
+        long next = timeout - idle;
+        if (heartbeat) {
+            long interval = heartbeatInterval;
+            if (idle >= interval) {
+                deliver(client, PING);
+                next = Math.min(next, interval);
+            } else {
+                next = Math.min(next, interval - idle);
+            }
+        }
+        timers.schedule(() -> checkIdle(client), next);
+    }
+
     /**
      * Invoked when a client disconnects from the server.
      *
      * @param client The connection object representing the disconnected client.
      */
     @Override
-    protected synchronized void clientDisconnected(ConnectionToClient client) {
+    protected void clientDisconnected(ConnectionToClient client) {
+        release(client);
         System.out.println("Client disconnected.");
     }
 
+    /**
+     * Invoked when a client connection is lost abruptly.
+     * OCSF reports such drops here instead of through clientDisconnected.
+     *
+     * @param client    The connection that failed.
+     * @param exception The exception that ended the connection.
+     */
+    @Override
+    protected void clientException(ConnectionToClient client, Throwable exception) {
+        release(client);
+    }
+
     /**
      * Invoked when the server begins listening for client connections.
      */
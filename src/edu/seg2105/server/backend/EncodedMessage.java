@@ -0,0 +1,67 @@
+package edu.seg2105.server.backend;
+
+import edu.seg2105.client.common.ChatMessage;
+import edu.seg2105.client.common.MessageCodec;
+import edu.seg2105.client.common.MessageCodecs;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The EncodedMessage class wraps a message being broadcast and caches its wire form per codec,
+ * so a broadcast encodes the message at most once for each codec in use instead of once per recipient.
+ * The cached wire objects are never modified after encoding and are shared by every connection.
+ *
+ * @author Onur Onel
+ * oonel101@uottawa.ca
+ */
+final class EncodedMessage {
+    private final ChatMessage message;
+    private final long handledAt;
+    private final AtomicReferenceArray<Object> wires = new AtomicReferenceArray<>(MessageCodecs.count());
+
+    /**
+     * Constructs an EncodedMessage for the given message. Nothing is encoded until a codec asks for it.
+     *
+     * @param message   The message to broadcast.
+     * @param handledAt The System.nanoTime at which the server started handling the message.
+     */
+    EncodedMessage(ChatMessage message, long handledAt) {
+        this.message = message;
+        this.handledAt = handledAt;
+    }
+
+    /**
+     * Returns the message carried by this broadcast.
+     *
+     * @return The message.
+     */
+    ChatMessage getMessage() {
+        return message;
+    }
+
+    /**
+     * Returns the time at which the server started handling the message, for handle-to-send latency.
+     *
+     * @return The System.nanoTime when handling started.
+     */
+    long handledAt() {
+        return handledAt;
+    }
+
+    /**
+     * Returns the wire form of the message for a codec, encoding it on first use.
+     * Concurrent first uses may encode twice, but all callers see the same published object.
+     *
+     * @param codec The codec of the recipient connection.
+     * @return The shared wire object.
+     */
+    Object wireFor(MessageCodec codec) {
+        int index = MessageCodecs.indexOf(codec);
+        Object wire = wires.get(index);
+        if (wire == null) {
+            wires.compareAndSet(index, null, codec.encode(message));
+            wire = wires.get(index);
+        }
+        return wire;
+    }
+}
@@ -0,0 +1,106 @@
+package edu.seg2105.server.backend;
+
+import edu.seg2105.client.common.CommandLine;
+import edu.seg2105.client.common.MessageCodec;
+import edu.seg2105.client.common.MessageCodecs;
+
+/**
+ * The LoginRequest class holds the login ID and the key=value options sent with #login.
+ * Unknown options and options with malformed values are ignored, so older and newer clients can log in
+ * to any server version.
+ * Supported options are:
+ * - codec=[name,name,...]: The codecs the client accepts, most preferred first; the connection switches to the
+ *   first one this server knows after login
+ * - history=[count]: How many journaled messages to replay after login, at most EchoServer.MAX_HISTORY
+ * - since=[epochMillis]: Replay every journaled message at or after this time instead
+ * - peer=on: The connection is another cluster node and the login ID is its node ID
+ * - secret=[secret]: The cluster secret a node must present with peer=on
+ * - acks=on: Acknowledge every message the client sends with #send [sequence] [text] with #ack [sequence],
+ *   or #nack [sequence] [reason] if it was not published
+ * - resume=[epoch].[sequence]: Send the messages published after this sequence number of the given server run
+ *   instead of replaying the journal, and report the server run and last sequence number with #seq; 0.0 asks
+ *   only for the report
+ * - presence=on: Send the roster of logged-in users with #roster, then its changes with #presence
+ * - heartbeat=on: The client answers #ping with #pong, so it can be closed once it stops responding; the server
+ *   confirms with #heartbeat [interval] [timeout] and answers the client's own #ping with #pong
+ * - channels=[channel,channel,...]: Join these channels instead of the default one, making the first current
+ *
+ * @author Onur Onel
+ * oonel101@uottawa.ca
+ */
+final class LoginRequest {
+    final String loginId;
+    MessageCodec codec = MessageCodecs.LEGACY;
+    int history = -1;
+    long since = -1;
+    boolean acks;
+    boolean peer;
+    String secret;
+    boolean heartbeat;
+    boolean presence;
+    long resumeEpoch = -1;
+    long resumeAfter = -1;
+    String[] channels;
+
+    private LoginRequest(String loginId) {
+        this.loginId = loginId;
+    }
+
+    /**
+     * Parses the text of a LOGIN message.
+     *
+     * @param text The login arguments: the login ID followed by options.
+     * @return The parsed request, or null if no login ID was given.
+     */
+    static LoginRequest parse(String text) {
+        CommandLine args = new CommandLine(text);
+        if (!args.hasNext()) {
+            return null;
+        }
+        LoginRequest request = new LoginRequest(args.next());
+        while (args.hasNext()) {
+            String option = args.next();
+            int separator = option.indexOf('=');
+            if (separator < 0) {
+                continue;
+            }
+            String key = option.substring(0, separator);
+            String value = option.substring(separator + 1);
+            try {
+                if (key.equals("codec")) {
+                    for (String name : value.split(",")) {
+                        request.codec = MessageCodecs.forName(name);
+                        if (request.codec != MessageCodecs.LEGACY) {
+                            break;
+                        }
+                    }
+                } else if (key.equals("history")) {
+                    request.history = Math.max(0, Integer.parseInt(value));
+                } else if (key.equals("since")) {
+                    request.since = Long.parseLong(value);
+                } else if (key.equals("acks")) {
+                    request.acks = value.equals("on");
+                } else if (key.equals("peer")) {
+                    request.peer = value.equals("on");
+                } else if (key.equals("secret")) {
+                    request.secret = value;
+                } else if (key.equals("presence")) {
+                    request.presence = value.equals("on");
+                } else if (key.equals("heartbeat")) {
+                    request.heartbeat = value.equals("on");
+                } else if (key.equals("resume")) {
+                    int dot = value.indexOf('.');
+                    if (dot > 0) {
+                        long epoch = Long.parseLong(value.substring(0, dot));
+                        request.resumeAfter = Math.max(0, Long.parseLong(value.substring(dot + 1)));
+                        request.resumeEpoch = epoch;
+                    }
+                } else if (key.equals("channels")) {
+                    request.channels = value.isEmpty() ? new String[0] : value.split(",");
+                }
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return request;
+    }
+}
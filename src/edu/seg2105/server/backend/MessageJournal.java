@@ -0,0 +1,301 @@
+package edu.seg2105.server.backend;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * The MessageJournal class is an append-only log of published messages kept in memory-mapped segment files.
+ * Publishing threads only enqueue entries; a single journal thread copies them into the mapped segment,
+ * forces it to disk every fsync interval, rolls to a new segment when the current one is full and deletes the
+ * oldest segments beyond the retention count. Replays read the segments on a separate thread.
+ * Each record is laid out as a four-byte length, an eight-byte timestamp, a two-byte channel length,
+ * the UTF-8 channel and the UTF-8 text. The length is written last, so a zero length marks the end of the data.
+ *
+ * @author Onur Onel
+ * oonel101@uottawa.ca
+ */
+final class MessageJournal implements Closeable {
+    static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+    static final int DEFAULT_RETAINED_SEGMENTS = 8;
+    static final long DEFAULT_FSYNC_INTERVAL = 1000;
+    private static final String SUFFIX = ".journal";
+    private static final int PENDING_CAPACITY = 65536;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int retainedSegments;
+    private final long fsyncInterval;
+    private final BlockingQueue<Entry> pending = new LinkedBlockingQueue<>(PENDING_CAPACITY);
+    private final AtomicLong dropped = new AtomicLong();
+    private final ExecutorService readers;
+    private final Thread writer;
+    private volatile boolean closed;
+    private long segmentIndex;
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+
+    /**
+     * Opens a journal in a directory, starting a fresh segment after any existing ones.
+     *
+     * @param directory        The directory holding the segment files.
+     * @param segmentSize      The size in bytes of each segment file.
+     * @param retainedSegments The number of segments kept before the oldest is deleted.
+     * @param fsyncInterval    The interval in milliseconds between forced writes to disk.
+     * @throws IOException If the directory or the first segment cannot be created.
+     */
+    MessageJournal(Path directory, int segmentSize, int retainedSegments, long fsyncInterval) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.retainedSegments = retainedSegments;
+        this.fsyncInterval = fsyncInterval;
+        Files.createDirectories(directory);
+        List<Path> existing = segments();
+        if (!existing.isEmpty()) {
+            segmentIndex = indexOf(existing.get(existing.size() - 1));
+        }
+        roll();
+        this.readers = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "journal-reader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.writer = new Thread(this::writeLoop, "journal-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Queues a message for the journal without blocking. If the journal thread has fallen too far behind
+     * the entry is dropped and counted rather than stalling the caller.
+     *
+     * @param channel The channel the message was published to, or the empty string for server-wide messages.
+     * @param text    The message text.
+     */
+    void append(String channel, String text) {
+        if (closed || !pending.offer(new Entry(System.currentTimeMillis(), channel, text))) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Streams journaled messages to a consumer on the journal reader thread.
+     * Either the last count matching messages are replayed or, if since is not negative, every matching message
+     * at or after that time.
+     *
+     * @param count  The number of most recent messages to replay.
+     * @param since  The earliest timestamp to replay, or -1 to replay by count.
+     * @param filter Selects the channels whose messages are replayed.
+     * @param sink   Receives the entries in journal order.
+     * @param done   Runs once after the last entry, also when there is nothing to replay or reading fails.
+     */
+    void replay(int count, long since, Predicate<String> filter, Consumer<Entry> sink, Runnable done) {
+        if (closed || (count <= 0 && since < 0)) {
+            done.run();
+            return;
+        }
+        try {
+            readers.execute(() -> {
+                try {
+                    replay(count, since, filter, sink);
+                } catch (IOException e) {
+                    System.err.println("Journal replay failed: " + e.getMessage());
+                } finally {
+                    done.run();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            done.run();
+        }
+    }
+
+    private void replay(int count, long since, Predicate<String> filter, Consumer<Entry> sink) throws IOException {
+        List<Path> files = segments();
+        if (since >= 0) {
+            for (Path file : files) {
+                for (Entry entry : read(file)) {
+                    if (entry.timestamp >= since && filter.test(entry.channel)) {
+                        sink.accept(entry);
+                    }
+                }
+            }
+            return;
+        }
+        Deque<Entry> tail = new ArrayDeque<>();
+        for (int i = files.size() - 1; i >= 0 && tail.size() < count; i--) {
+            List<Entry> entries = read(files.get(i));
+            for (int j = entries.size() - 1; j >= 0 && tail.size() < count; j--) {
+                if (filter.test(entries.get(j).channel)) {
+                    tail.addFirst(entries.get(j));
+                }
+            }
+        }
+        tail.forEach(sink);
+    }
+
+    /**
+     * Returns the number of entries dropped because the journal thread could not keep up.
+     *
+     * @return The drop count.
+     */
+    long dropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Stops accepting entries, writes out everything already queued and forces the last segment to disk.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        readers.shutdownNow();
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeLoop() {
+        long nextSync = System.currentTimeMillis() + fsyncInterval;
+        try {
+            while (!closed || !pending.isEmpty()) {
+                Entry entry = pending.poll(Math.max(1, nextSync - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                if (entry != null) {
+                    write(entry);
+                }
+                if (System.currentTimeMillis() >= nextSync) {
+                    segment.force();
+                    nextSync = System.currentTimeMillis() + fsyncInterval;
+                }
+            }
+            segment.force();
+            channel.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            closed = true;
+            System.err.println("Journal disabled: " + e.getMessage());
+        }
+    }
+
+    private void write(Entry entry) throws IOException {
+        byte[] channelBytes = entry.channel.getBytes(StandardCharsets.UTF_8);
+        byte[] textBytes = entry.text.getBytes(StandardCharsets.UTF_8);
+        int length = 8 + 2 + channelBytes.length + textBytes.length;
+        if (channelBytes.length > Short.MAX_VALUE || 4 + length + 4 > segmentSize) {
+            dropped.incrementAndGet();
+            return;
+        }
+        if (segment.remaining() < 4 + length + 4) {
+            roll();
+        }
+        int start = segment.position();
+        segment.position(start + 4);
+        segment.putLong(entry.timestamp);
+        segment.putShort((short) channelBytes.length);
+        segment.put(channelBytes);
+        segment.put(textBytes);
+        segment.putInt(start, length);
+    }
+
+    private void roll() throws IOException {
+        if (segment != null) {
+            segment.force();
+            channel.close();
+        }
+        segmentIndex++;
+        Path file = directory.resolve(String.format("%016d%s", segmentIndex, SUFFIX));
+        channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        List<Path> files = segments();
+        for (int i = 0; i < files.size() - retainedSegments; i++) {
+            Files.deleteIfExists(files.get(i));
+        }
+    }
+
+    private List<Path> segments() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    private static long indexOf(Path file) {
+        String name = file.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static List<Entry> read(Path file) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+            while (buffer.remaining() >= 4) {
+                int length = buffer.getInt();
+                if (length <= 0 || length > buffer.remaining()) {
+                    break;
+                }
+                try {
+                    long timestamp = buffer.getLong();
+                    byte[] channelBytes = new byte[buffer.getShort()];
+                    buffer.get(channelBytes);
+                    byte[] textBytes = new byte[length - 10 - channelBytes.length];
+                    buffer.get(textBytes);
+                    entries.add(new Entry(timestamp, new String(channelBytes, StandardCharsets.UTF_8),
+                            new String(textBytes, StandardCharsets.UTF_8)));
+                } catch (BufferUnderflowException | NegativeArraySizeException e) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            if (Files.exists(file)) {
+                throw e;
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * A single journaled message.
+     */
+    static final class Entry {
+        final long timestamp;
+        final String channel;
+        final String text;
+
+        Entry(long timestamp, String channel, String text) {
+            this.timestamp = timestamp;
+            this.channel = channel;
+            this.text = text;
+        }
+    }
+}
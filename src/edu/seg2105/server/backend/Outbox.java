@@ -0,0 +1,264 @@
+package edu.seg2105.server.backend;
+
+import edu.seg2105.client.common.ChatMessage;
+import edu.seg2105.client.common.MessageCodec;
+import edu.seg2105.client.common.MessageType;
+import ocsf.server.ConnectionToClient;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The Outbox class is the bounded outbound queue of a single client connection, and the only path that writes to
+ * it: OCSF's output stream is not safe for concurrent writers.
+ * Broadcasting threads only enqueue the shared EncodedMessage; a shared writer pool drains each outbox with at most
+ * one writer at a time, so a client with a full TCP window stalls its own queue rather than the broadcaster.
+ * When the queue reaches its capacity the configured OverflowPolicy decides what to give up.
+ * While a client is being caught up after login the outbox can be held: live messages queue up unwritten until
+ * the catch-up messages are released ahead of them.
+ *
+ * @author Onur Onel
+ * oonel101@uottawa.ca
+ */
+final class Outbox implements Runnable {
+    private static final int BATCH = 64;
+
+    private final ConnectionToClient client;
+    private final Executor writers;
+    private final ServerMetrics metrics;
+    private final ConnectionStats stats;
+    private final Queue<EncodedMessage> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger depth = new AtomicInteger();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile int capacity;
+    private volatile OverflowPolicy policy;
+    private volatile MessageCodec codec;
+    private volatile boolean held;
+    private volatile List<EncodedMessage> first;
+    private volatile boolean closing;
+    private volatile boolean closed;
+
+    /**
+     * Constructs an outbox for a connection.
+     *
+     * @param client   The connection drained by this outbox.
+     * @param codec    The codec to write in until another is negotiated.
+     * @param writers  The shared pool that runs the writers.
+     * @param metrics  The server metrics updated for every message written.
+     * @param capacity The high-water mark of the queue.
+     * @param policy   What to do when the queue reaches the high-water mark.
+     */
+    Outbox(ConnectionToClient client, MessageCodec codec, Executor writers, ServerMetrics metrics, int capacity,
+           OverflowPolicy policy) {
+        this.client = client;
+        this.codec = codec;
+        this.writers = writers;
+        this.metrics = metrics;
+        this.stats = ServerMetrics.statsOf(client);
+        this.capacity = capacity;
+        this.policy = policy;
+    }
+
+    /**
+     * Queues a message for the connection without blocking.
+     * It is encoded with the connection's codec only when written, reusing the shared encoding.
+     *
+     * @param message The message to send.
+     */
+    void offer(EncodedMessage message) {
+        if (closed || closing) {
+            return;
+        }
+        if (depth.get() >= capacity) {
+            switch (policy) {
+                case DROP_OLDEST:
+                    if (queue.poll() != null) {
+                        depth.decrementAndGet();
+                        dropped.incrementAndGet();
+                    }
+                    break;
+                case COALESCE:
+                    int skipped = 0;
+                    while (queue.poll() != null) {
+                        depth.decrementAndGet();
+                        skipped++;
+                    }
+                    dropped.addAndGet(skipped);
+                    enqueue(new EncodedMessage(new ChatMessage(MessageType.NOTICE,
+                            skipped + " messages skipped (slow connection)"), System.nanoTime()));
+                    break;
+                case DISCONNECT:
+                    closed = true;
+                    dropped.incrementAndGet();
+                    writers.execute(this::disconnect);
+                    return;
+            }
+        }
+        enqueue(message);
+    }
+
+    /**
+     * Queues a last message and closes the connection once everything queued before it has been written.
+     * Messages offered afterwards are discarded.
+     *
+     * @param message The last message to send.
+     */
+    void offerAndClose(EncodedMessage message) {
+        if (closed || closing) {
+            return;
+        }
+        enqueue(message);
+        closing = true;
+        schedule();
+    }
+
+    /**
+     * Stops writing until release is called; messages offered meanwhile are queued, subject to the overflow policy.
+     */
+    void hold() {
+        held = true;
+    }
+
+    /**
+     * Writes the given messages ahead of everything queued while the outbox was held, then resumes writing.
+     *
+     * @param messages The messages to write first, in order.
+     */
+    void release(List<EncodedMessage> messages) {
+        first = messages;
+        held = false;
+        schedule();
+    }
+
+    /**
+     * Switches the codec that messages are written in, from the next message written.
+     *
+     * @param codec The codec negotiated for the connection.
+     */
+    void useCodec(MessageCodec codec) {
+        this.codec = codec;
+    }
+
+    /**
+     * Returns the codec negotiated for the connection, which is also the one its messages are decoded with.
+     *
+     * @return The current codec.
+     */
+    MessageCodec codec() {
+        return codec;
+    }
+
+    private void enqueue(EncodedMessage message) {
+        queue.add(message);
+        depth.incrementAndGet();
+        schedule();
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            writers.execute(this);
+        }
+    }
+
+    /**
+     * Writes up to one batch of queued messages, then yields the writer thread to other outboxes.
+     */
+    @Override
+    public void run() {
+        if (held) {
+            scheduled.set(false);
+            if (!held) {
+                schedule();
+            }
+            return;
+        }
+        try {
+            List<EncodedMessage> messages = first;
+            if (messages != null) {
+                first = null;
+                for (EncodedMessage message : messages) {
+                    write(message);
+                }
+            }
+            for (int i = 0; i < BATCH && !closed; i++) {
+                EncodedMessage message = queue.poll();
+                if (message == null) {
+                    break;
+                }
+                depth.decrementAndGet();
+                write(message);
+            }
+        } catch (IOException e) {
+            closed = true;
+        } finally {
+            scheduled.set(false);
+        }
+        if (closed) {
+            return;
+        }
+        if (!queue.isEmpty()) {
+            schedule();
+        } else if (closing) {
+            closed = true;
+            disconnect();
+        }
+    }
+
+    private void write(EncodedMessage message) throws IOException {
+        Object wire = message.wireFor(codec);
+        client.sendToClient(wire);
+        metrics.sent(stats, wire, message.handledAt());
+    }
+
+    private void disconnect() {
+        try {
+            client.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Stops accepting messages and discards anything still queued.
+     */
+    void close() {
+        closed = true;
+        queue.clear();
+        depth.set(0);
+    }
+
+    /**
+     * Changes the high-water mark and overflow policy of this outbox.
+     *
+     * @param capacity The new high-water mark.
+     * @param policy   The new overflow policy.
+     */
+    void configure(int capacity, OverflowPolicy policy) {
+        this.capacity = capacity;
+        this.policy = policy;
+    }
+
+    /**
+     * Returns the number of messages waiting to be written.
+     *
+     * @return The queue depth.
+     */
+    int depth() {
+        return depth.get();
+    }
+
+    /**
+     * Returns the number of messages discarded by the overflow policy.
+     *
+     * @return The drop count.
+     */
+    long dropped() {
+        return dropped.get();
+    }
+}
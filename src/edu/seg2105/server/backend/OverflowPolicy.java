@@ -0,0 +1,40 @@
+package edu.seg2105.server.backend;
+
+import java.util.Locale;
+
+/**
+ * Enumerates what an Outbox does when a slow client lets its queue reach the high-water mark.
+ *
+ * @author Onur Onel
+ * oonel101@uottawa.ca
+ */
+public enum OverflowPolicy {
+    /**
+     * Discards the oldest queued message to make room for the new one.
+     */
+    DROP_OLDEST,
+    /**
+     * Replaces the whole backlog with a single notice of how many messages were skipped.
+     */
+    COALESCE,
+    /**
+     * Closes the connection.
+     */
+    DISCONNECT;
+
+    /**
+     * Parses a policy from its console spelling, e.g. drop-oldest.
+     *
+     * @param name The policy name.
+     * @return The matching policy.
+     * @throws IllegalArgumentException If the name is unknown.
+     */
+    public static OverflowPolicy parse(String name) {
+        return valueOf(name.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+    }
+
+    @Override
+    public String toString() {
+        return name().toLowerCase(Locale.ROOT).replace('_', '-');
+    }
+}
@@ -0,0 +1,180 @@
+package edu.seg2105.server.backend;
+
+import edu.seg2105.client.common.CommandLine;
+import edu.seg2105.client.common.MessageCodecs;
+import ocsf.client.AbstractClient;
+
+import java.io.IOException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The PeerLink class is the outbound connection from one cluster node to another.
+ * It logs in to the peer as a node rather than a user, presenting the cluster secret, and then only sends: relayed messages and login claims
+ * travel from each node to every peer over that node's own outbound links. Writes happen on the cluster's
+ * executor so a slow peer never blocks a broadcast, and a lost link is retried until it comes back.
+ * The peer answers the login with #node [nodeId], so the link knows which node it reaches, and with
+ * #heartbeat [interval] [timeout]. The link then pings the peer every interval, which keeps the peer from closing
+ * it as idle, and reconnects once nothing has come back for the timeout, so a half-open link does not silently
+ * swallow relays.
+ *
+ * @author Onur Onel
+ * oonel101@uottawa.ca
+ */
+final class PeerLink extends AbstractClient {
+    static final long RETRY_INTERVAL = 2000;
+
+    private final Cluster cluster;
+    private final ScheduledExecutorService executor;
+    private volatile boolean stopped;
+    private volatile String node;
+    private volatile long lastReceived;
+    private int connectionCount;
+
+    /**
+     * Constructs a link to a peer node. Nothing is connected until start() is called.
+     *
+     * @param host     The peer's host.
+     * @param port     The peer's listening port.
+     * @param cluster  The cluster this node belongs to.
+     * @param executor The single-threaded executor that performs connects and writes for this link.
+     */
+    PeerLink(String host, int port, Cluster cluster, ScheduledExecutorService executor) {
+        super(host, port);
+        this.cluster = cluster;
+        this.executor = executor;
+    }
+
+    /**
+     * Starts connecting to the peer, retrying every RETRY_INTERVAL milliseconds until it succeeds.
+     */
+    void start() {
+        executor.execute(this::connect);
+    }
+
+    /**
+     * Closes the link and stops reconnecting.
+     */
+    void stop() {
+        stopped = true;
+        executor.execute(() -> {
+            try {
+                closeConnection();
+            } catch (IOException ignored) {
+            }
+        });
+    }
+
+    /**
+     * Queues a line for the peer. Lines queued while the link is down are dropped; the peer resynchronizes
+     * logins when the link is re-established and chat messages are not replayed across nodes.
+     *
+     * @param line The protocol line to send.
+     */
+    void send(String line) {
+        executor.execute(() -> {
+            if (!isConnected()) {
+                return;
+            }
+            try {
+                sendToServer(line);
+            } catch (IOException e) {
+                scheduleReconnect();
+            }
+        });
+    }
+
+    /**
+     * Connects to the peer, identifies this node and announces every user logged in locally.
+     * Runs on the link's executor like every other write, so nothing is sent before the announcement.
+     */
+    private void connect() {
+        if (stopped || isConnected()) {
+            return;
+        }
+        try {
+            openConnection();
+            connectionCount++;
+            lastReceived = System.nanoTime();
+            sendToServer("#login " + cluster.nodeId + " peer=on secret=" + cluster.secret);
+            for (String loginId : cluster.localLogins()) {
+                sendToServer("#claim " + cluster.nodeId + " " + loginId);
+            }
+        } catch (IOException e) {
+            scheduleReconnect();
+        }
+    }
+
+    /**
+     * Returns the ID of the node this link reaches, as reported by the peer.
+     *
+     * @return The peer's node ID, or null until the peer has answered the login.
+     */
+    String node() {
+        return node;
+    }
+
+    /**
+     * Pings the peer and gives the link up once the peer has been silent for the timeout. Runs on the link's
+     * executor, so it is serialized with connects and writes.
+     *
+     * @param connection The connection the check was started for; the check stops once it is replaced.
+     * @param interval   The heartbeat interval in milliseconds.
+     * @param timeout    The time without traffic after which the link is lost, in milliseconds.
+     */
+    private void checkPeer(int connection, long interval, long timeout) {
+        if (stopped || connection != connectionCount || !isConnected()) {
+            return;
+        }
+        if (TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastReceived) >= timeout) {
+            try {
+                closeConnection();
+            } catch (IOException ignored) {
+            }
+            scheduleReconnect();
+            return;
+        }
+        try {
+            sendToServer("#ping");
+        } catch (IOException e) {
+            scheduleReconnect();
+            return;
+        }
+        executor.schedule(() -> checkPeer(connection, interval, timeout), interval, TimeUnit.MILLISECONDS);
+    }
+
+    private void scheduleReconnect() {
+        if (!stopped) {
+            executor.schedule(this::connect, RETRY_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    protected void connectionException(Exception exception) {
+        scheduleReconnect();
+    }
+
+    @Override
+    protected void handleMessageFromServer(Object msg) {
+        lastReceived = System.nanoTime();
+        CommandLine line = new CommandLine(MessageCodecs.decode(msg).getText());
+        String command = line.next();
+        if ("#node".equals(command)) {
+            node = line.next();
+        } else if ("#heartbeat".equals(command)) {
+            try {
+                long interval = Long.parseLong(line.next());
+                long timeout = Long.parseLong(line.next());
+                if (interval > 0 && timeout > 0) {
+                    executor.execute(() -> checkPeer(connectionCount, interval, timeout));
+                }
+            } catch (NumberFormatException ignored) {
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getHost() + ":" + getPort() + (isConnected() ? " connected" : " disconnected");
+    }
+}
@@ -0,0 +1,107 @@
+package edu.seg2105.server.backend;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * The Presence class keeps the roster of logged-in users and publishes changes to it as versioned deltas.
+ * Logins and logouts are collected for a short window and then published together as one delta,
+ * #presence [version] +loginId -loginId ..., so a mass reconnect costs a few updates rather than one per user;
+ * a user who logs out and back in within the window does not appear at all.
+ * A new subscriber gets the published roster as #roster [version] [loginId] [loginId] ... and then applies
+ * every delta with a higher version. Deltas and snapshots are handed to the publisher while the roster is locked,
+ * so a publisher that only enqueues keeps them in version order.
+ *
+ * @author Onur Onel
+ * oonel101@uottawa.ca
+ */
+final class Presence {
+    static final long DEFAULT_WINDOW = 250;
+
+    private final TimerWheel timers;
+    private final long window;
+    private final Consumer<String> publisher;
+    private final Set<String> online = new HashSet<>();
+    private final Map<String, Boolean> pending = new LinkedHashMap<>();
+    private long version;
+    private boolean flushScheduled;
+
+    /**
+     * Constructs an empty roster.
+     *
+     * @param timers    The timer wheel that ends each collection window.
+     * @param window    The length of a collection window in milliseconds.
+     * @param publisher Sends a delta line to every subscriber; must not block.
+     */
+    Presence(TimerWheel timers, long window, Consumer<String> publisher) {
+        this.timers = timers;
+        this.window = window;
+        this.publisher = publisher;
+    }
+
+    /**
+     * Records that a user has logged in.
+     *
+     * @param loginId The login ID.
+     */
+    synchronized void joined(String loginId) {
+        change(loginId, true);
+    }
+
+    /**
+     * Records that a user has logged out.
+     *
+     * @param loginId The login ID.
+     */
+    synchronized void left(String loginId) {
+        change(loginId, false);
+    }
+
+    /**
+     * Hands the published roster and its version to a new subscriber.
+     *
+     * @param sink Sends the snapshot line to the subscriber; must not block.
+     */
+    synchronized void snapshot(Consumer<String> sink) {
+        StringBuilder roster = new StringBuilder("#roster ").append(version);
+        for (String loginId : online) {
+            roster.append(' ').append(loginId);
+        }
+        sink.accept(roster.toString());
+    }
+
+    private void change(String loginId, boolean present) {
+        if (online.contains(loginId) == present) {
+            pending.remove(loginId);
+        } else {
+            pending.put(loginId, present);
+        }
+        if (!flushScheduled && !pending.isEmpty()) {
+            flushScheduled = true;
+            timers.schedule(this::flush, window);
+        }
+    }
+
+    private synchronized void flush() {
+        flushScheduled = false;
+        if (pending.isEmpty()) {
+            return;
+        }
+        StringBuilder delta = new StringBuilder("#presence ").append(++version);
+        for (Map.Entry<String, Boolean> change : pending.entrySet()) {
+            if (change.getValue()) {
+                online.add(change.getKey());
+                delta.append(" +");
+            } else {
+                online.remove(change.getKey());
+                delta.append(" -");
+            }
+            delta.append(change.getKey());
+        }
+        pending.clear();
+        publisher.accept(delta.toString());
+    }
+}
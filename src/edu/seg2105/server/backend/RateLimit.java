@@ -0,0 +1,75 @@
+package edu.seg2105.server.backend;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The RateLimit class holds a sustained rate and a burst size shared by any number of TokenBuckets.
+ * Buckets read it on every acquire, so changing the limit at runtime takes effect for all of them at once.
+ * A rate of zero means unlimited.
+ *
+ * @author Onur Onel
+ * oonel101@uottawa.ca
+ */
+final class RateLimit {
+    private static final long MAX_TOLERANCE = Long.MAX_VALUE / 4;
+
+    private volatile long interval;
+    private volatile long tolerance;
+    private volatile double rate;
+    private volatile int burst;
+
+    /**
+     * Constructs a limit.
+     *
+     * @param rate  The sustained number of messages per second, or 0 for unlimited.
+     * @param burst The number of messages that may be sent back to back.
+     */
+    RateLimit(double rate, int burst) {
+        set(rate, burst);
+    }
+
+    /**
+     * Changes the limit.
+     *
+     * @param rate  The sustained number of messages per second, or 0 for unlimited.
+     * @param burst The number of messages that may be sent back to back.
+     * @throws IllegalArgumentException If the rate is negative or not a number, or so small that the burst
+     *                                  tolerance would not fit in a long of nanoseconds.
+     */
+    synchronized void set(double rate, int burst) {
+        if (!(rate >= 0) || Double.isInfinite(rate)) {
+            throw new IllegalArgumentException("Rate must be a non-negative number: " + rate);
+        }
+        if (rate > 0 && TimeUnit.SECONDS.toNanos(1) / rate * Math.max(1, burst) > MAX_TOLERANCE) {
+            throw new IllegalArgumentException("Rate too small for burst " + burst + ": " + rate);
+        }
+        long interval = rate <= 0 ? 0 : (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        this.tolerance = interval * Math.max(1, burst);
+        this.interval = interval;
+        this.rate = rate;
+        this.burst = burst;
+    }
+
+    /**
+     * Returns the nanoseconds between tokens, or 0 if unlimited.
+     *
+     * @return The emission interval.
+     */
+    long interval() {
+        return interval;
+    }
+
+    /**
+     * Returns how far ahead of real time a bucket may run, in nanoseconds.
+     *
+     * @return The burst tolerance.
+     */
+    long tolerance() {
+        return tolerance;
+    }
+
+    @Override
+    public String toString() {
+        return rate <= 0 ? "unlimited" : rate + " msg/s, burst " + burst;
+    }
+}
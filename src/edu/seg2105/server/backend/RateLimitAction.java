@@ -0,0 +1,40 @@
+package edu.seg2105.server.backend;
+
+import java.util.Locale;
+
+/**
+ * Enumerates what EchoServer does with a message from a client that is over its rate limit.
+ *
+ * @author Onur Onel
+ * oonel101@uottawa.ca
+ */
+public enum RateLimitAction {
+    /**
+     * Holds the client's connection thread until the message is within the limit, then handles it.
+     */
+    DELAY,
+    /**
+     * Discards the message and tells the client.
+     */
+    DROP,
+    /**
+     * Closes the client's connection.
+     */
+    DISCONNECT;
+
+    /**
+     * Parses an action from its console spelling.
+     *
+     * @param name The action name.
+     * @return The matching action.
+     * @throws IllegalArgumentException If the name is unknown.
+     */
+    public static RateLimitAction parse(String name) {
+        return valueOf(name.trim().toUpperCase(Locale.ROOT));
+    }
+
+    @Override
+    public String toString() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,104 @@
+package edu.seg2105.server.backend;
+
+import edu.seg2105.client.common.ChatMessage;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * The RecentMessages class numbers the messages published on this server and keeps the most recent ones in a
+ * fixed-size ring, so a client that reconnects can be sent exactly the messages it missed.
+ * Sequence numbers start at 1 and only hold within one server run, which is identified by its epoch.
+ * Publishing threads take a number from an atomic counter and fill their slot with a single write, so they never
+ * block each other; a reader that finds a slot still holding an older message simply skips it.
+ *
+ * @author Onur Onel
+ * oonel101@uottawa.ca
+ */
+final class RecentMessages {
+    static final int DEFAULT_CAPACITY = 4096;
+
+    private final long epoch = System.currentTimeMillis();
+    private final AtomicLong last = new AtomicLong();
+    private final AtomicReferenceArray<Entry> ring;
+
+    /**
+     * Constructs an empty ring.
+     *
+     * @param capacity The number of messages kept.
+     */
+    RecentMessages(int capacity) {
+        this.ring = new AtomicReferenceArray<>(capacity);
+    }
+
+    /**
+     * Returns the identifier of this server run, which a client must present for its sequence number to count.
+     *
+     * @return The time this ring was created, in epoch milliseconds.
+     */
+    long epoch() {
+        return epoch;
+    }
+
+    /**
+     * Returns the sequence number of the most recently numbered message.
+     *
+     * @return The last sequence number, or 0 if nothing has been published.
+     */
+    long last() {
+        return last.get();
+    }
+
+    /**
+     * Numbers a message and keeps it, evicting the oldest message once the ring is full.
+     *
+     * @param channel The channel it is published to, or the empty string for every client.
+     * @param message The message to number.
+     * @return The message carrying its sequence number.
+     */
+    ChatMessage append(String channel, ChatMessage message) {
+        long sequence = last.incrementAndGet();
+        ChatMessage numbered = new ChatMessage(message.getType(), message.getText(), sequence);
+        ring.set(slot(sequence), new Entry(channel, numbered));
+        return numbered;
+    }
+
+    /**
+     * Hands the kept messages numbered after a sequence number, up to the last one, to a sink in order.
+     *
+     * @param after  The last sequence number the client received.
+     * @param filter Accepts the channels whose messages are wanted; the empty string stands for messages to everyone.
+     * @param upTo   The last sequence number to replay.
+     * @param sink   Receives each message.
+     * @return The number of messages after the given sequence number that are no longer kept.
+     */
+    long replay(long after, long upTo, Predicate<String> filter, Consumer<ChatMessage> sink) {
+        long first = Math.max(after + 1, upTo - ring.length() + 1);
+        for (long sequence = first; sequence <= upTo; sequence++) {
+            Entry entry = ring.get(slot(sequence));
+            if (entry != null && entry.message.getSequence() == sequence && filter.test(entry.channel)) {
+                sink.accept(entry.message);
+            }
+        }
+        return first - (after + 1);
+    }
+
+    private int slot(long sequence) {
+        return (int) (sequence % ring.length());
+    }
+
+    /**
+     * A kept message with the channel it was published to.
+     */
+    private static final class Entry {
+        final String channel;
+        final ChatMessage message;
+
+        Entry(String channel, ChatMessage message) {
+            this.channel = channel;
+            this.message = message;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package edu.seg2105.server.backend;
+
+import edu.seg2105.client.common.LatencyHistogram;
+import ocsf.server.ConnectionToClient;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * The ServerMetrics class aggregates the traffic counters and latency histograms of an EchoServer.
+ * Counters are LongAdders and histograms are lock-free, so recording costs a few atomic increments and
+ * never allocates. Two latencies are tracked: handle-to-send, from the moment a message is handled until a copy
+ * of it is written to a recipient, and broadcast, the time taken to hand a message to every recipient's queue.
+ * The time from accepting a connection to completing its login is tracked as well.
+ * Active connections and logged-in users are read from the server when asked.
+ *
+ * @author Onur Onel
+ * oonel101@uottawa.ca
+ */
+public final class ServerMetrics implements ServerMetricsMBean {
+    final LongAdder messagesIn = new LongAdder();
+    final LongAdder messagesOut = new LongAdder();
+    final LongAdder bytesIn = new LongAdder();
+    final LongAdder bytesOut = new LongAdder();
+    final LongAdder idleClosed = new LongAdder();
+    final LongAdder loginTimeouts = new LongAdder();
+    final LatencyHistogram handleToSend = new LatencyHistogram();
+    final LatencyHistogram broadcast = new LatencyHistogram();
+    final LatencyHistogram login = new LatencyHistogram();
+    private final IntSupplier activeConnections;
+    private final IntSupplier loggedInUsers;
+
+    ServerMetrics(IntSupplier activeConnections, IntSupplier loggedInUsers) {
+        this.activeConnections = activeConnections;
+        this.loggedInUsers = loggedInUsers;
+    }
+
+    /**
+     * Counts a message received from a client.
+     *
+     * @param stats      The counters of the sending connection.
+     * @param wire       The object received.
+     * @param receivedAt The System.nanoTime at which it was received.
+     */
+    void received(ConnectionStats stats, Object wire, long receivedAt) {
+        int size = ConnectionStats.sizeOf(wire);
+        stats.lastReceived = receivedAt;
+        stats.messagesIn.incrementAndGet();
+        stats.bytesIn.addAndGet(size);
+        messagesIn.increment();
+        bytesIn.add(size);
+    }
+
+    /**
+     * Counts a message written to a client.
+     *
+     * @param stats     The counters of the receiving connection.
+     * @param wire      The object written.
+     * @param handledAt The System.nanoTime at which the server started handling the message.
+     */
+    void sent(ConnectionStats stats, Object wire, long handledAt) {
+        int size = ConnectionStats.sizeOf(wire);
+        stats.messagesOut.incrementAndGet();
+        stats.bytesOut.addAndGet(size);
+        messagesOut.increment();
+        bytesOut.add(size);
+        handleToSend.record(System.nanoTime() - handledAt);
+    }
+
+    /**
+     * Returns the counters of a connection, creating them on first use.
+     *
+     * @param client The connection.
+     * @return The connection's counters.
+     */
+    static ConnectionStats statsOf(ConnectionToClient client) {
+        ConnectionStats stats = (ConnectionStats) client.getInfo("stats");
+        if (stats == null) {
+            stats = new ConnectionStats();
+            client.setInfo("stats", stats);
+        }
+        return stats;
+    }
+
+    @Override
+    public long getMessagesIn() {
+        return messagesIn.sum();
+    }
+
+    @Override
+    public long getMessagesOut() {
+        return messagesOut.sum();
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    @Override
+    public long getIdleClosed() {
+        return idleClosed.sum();
+    }
+
+    @Override
+    public long getLoginTimeouts() {
+        return loginTimeouts.sum();
+    }
+
+    @Override
+    public int getActiveConnections() {
+        return activeConnections.getAsInt();
+    }
+
+    @Override
+    public int getLoggedInUsers() {
+        return loggedInUsers.getAsInt();
+    }
+
+    @Override
+    public double getHandleToSendP50Micros() {
+        return handleToSend.valueAtPercentile(50) / 1000.0;
+    }
+
+    @Override
+    public double getHandleToSendP99Micros() {
+        return handleToSend.valueAtPercentile(99) / 1000.0;
+    }
+
+    @Override
+    public double getHandleToSendMaxMicros() {
+        return handleToSend.max() / 1000.0;
+    }
+
+    @Override
+    public double getBroadcastP50Micros() {
+        return broadcast.valueAtPercentile(50) / 1000.0;
+    }
+
+    @Override
+    public double getBroadcastP99Micros() {
+        return broadcast.valueAtPercentile(99) / 1000.0;
+    }
+
+    @Override
+    public double getBroadcastMaxMicros() {
+        return broadcast.max() / 1000.0;
+    }
+
+    @Override
+    public double getLoginP50Micros() {
+        return login.valueAtPercentile(50) / 1000.0;
+    }
+
+    @Override
+    public double getLoginP99Micros() {
+        return login.valueAtPercentile(99) / 1000.0;
+    }
+
+    @Override
+    public double getLoginMaxMicros() {
+        return login.max() / 1000.0;
+    }
+
+    @Override
+    public void resetLatencies() {
+        handleToSend.reset();
+        broadcast.reset();
+        login.reset();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("connections %d, logged in %d, closed idle %d, login timeouts %d%n"
+                        + "in %d msgs/%d B, out %d msgs/%d B%n"
+                        + "handle-to-send us: p50 %.1f, p99 %.1f, max %.1f (%d samples)%n"
+                        + "broadcast us: p50 %.1f, p99 %.1f, max %.1f (%d samples)%n"
+                        + "accept-to-login us: p50 %.1f, p99 %.1f, max %.1f (%d samples)",
+                getActiveConnections(), getLoggedInUsers(), getIdleClosed(), getLoginTimeouts(), getMessagesIn(),
+                getBytesIn(), getMessagesOut(), getBytesOut(), getHandleToSendP50Micros(), getHandleToSendP99Micros(),
+                getHandleToSendMaxMicros(), handleToSend.count(), getBroadcastP50Micros(), getBroadcastP99Micros(),
+                getBroadcastMaxMicros(), broadcast.count(), getLoginP50Micros(), getLoginP99Micros(),
+                getLoginMaxMicros(), login.count());
+    }
+}
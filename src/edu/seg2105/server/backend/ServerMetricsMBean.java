@@ -0,0 +1,46 @@
+package edu.seg2105.server.backend;
+
+/**
+ * This interface is the JMX management view of ServerMetrics.
+ * Latency attributes are reported in microseconds.
+ *
+ * @author Onur Onel
+ * oonel101@uottawa.ca
+ */
+public interface ServerMetricsMBean {
+    long getMessagesIn();
+
+    long getMessagesOut();
+
+    long getBytesIn();
+
+    long getBytesOut();
+
+    long getIdleClosed();
+
+    long getLoginTimeouts();
+
+    int getActiveConnections();
+
+    int getLoggedInUsers();
+
+    double getHandleToSendP50Micros();
+
+    double getHandleToSendP99Micros();
+
+    double getHandleToSendMaxMicros();
+
+    double getBroadcastP50Micros();
+
+    double getBroadcastP99Micros();
+
+    double getBroadcastMaxMicros();
+
+    double getLoginP50Micros();
+
+    double getLoginP99Micros();
+
+    double getLoginMaxMicros();
+
+    void resetLatencies();
+}
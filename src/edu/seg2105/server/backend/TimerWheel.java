@@ -0,0 +1,149 @@
+package edu.seg2105.server.backend;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The TimerWheel class runs delayed tasks on a single thread using a hashed timing wheel.
+ * Time is divided into ticks and the wheel into a fixed number of buckets: a task due in d ticks goes into bucket
+ * (now + d) mod size together with the number of full turns it still has to wait. Scheduling and cancelling cost
+ * O(1) however many tasks are pending, and each tick visits a single bucket, so a timeout per connection stays
+ * cheap with tens of thousands of connections.
+ * Tasks scheduled from other threads are handed over through a queue and placed by the wheel thread, which is the
+ * only thread touching the buckets. Tasks run on the wheel thread, so they must be short and must not block.
+ *
+ * @author Onur Onel
+ * oonel101@uottawa.ca
+ */
+final class TimerWheel {
+    private final long tickNanos;
+    private final Timeout[] buckets;
+    private final int mask;
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    private final long start = System.nanoTime();
+    private long tick;
+    private volatile boolean stopped;
+
+    /**
+     * Constructs a wheel and starts its thread.
+     *
+     * @param name       The name of the wheel thread.
+     * @param tickMillis The length of a tick in milliseconds; tasks run up to one tick late.
+     * @param size       The number of buckets, rounded up to a power of two.
+     */
+    TimerWheel(String name, long tickMillis, int size) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.buckets = new Timeout[Integer.highestOneBit(Math.max(1, size - 1)) << 1];
+        this.mask = buckets.length - 1;
+        Thread thread = new Thread(this::run, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Schedules a task to run once after a delay.
+     *
+     * @param task        The task to run on the wheel thread.
+     * @param delayMillis The delay in milliseconds.
+     * @return A handle with which the task can be cancelled.
+     */
+    Timeout schedule(Runnable task, long delayMillis) {
+        Timeout timeout = new Timeout(task, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis));
+        pending.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Stops the wheel thread. Pending tasks never run.
+     */
+    void stop() {
+        stopped = true;
+    }
+
+    private void run() {
+        while (!stopped) {
+            long deadline = start + (tick + 1) * tickNanos;
+            long sleep;
+            while ((sleep = deadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(sleep);
+            }
+            place();
+            expire((int) (tick & mask));
+            tick++;
+        }
+    }
+
+    /**
+     * Moves newly scheduled tasks into their buckets. A task whose deadline has already passed
+     * goes into the current bucket and runs this tick.
+     */
+    private void place() {
+        Timeout timeout;
+        while ((timeout = pending.poll()) != null) {
+            if (timeout.cancelled) {
+                continue;
+            }
+            long due = Math.max(tick, (timeout.deadline - start) / tickNanos);
+            timeout.rounds = (due - tick) / buckets.length;
+            int bucket = (int) (due & mask);
+            timeout.next = buckets[bucket];
+            buckets[bucket] = timeout;
+        }
+    }
+
+    /**
+     * Runs the tasks of a bucket that are due this turn, and drops cancelled ones.
+     *
+     * @param bucket The index of the bucket.
+     */
+    private void expire(int bucket) {
+        Timeout previous = null;
+        Timeout timeout = buckets[bucket];
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            if (timeout.cancelled || timeout.rounds-- <= 0) {
+                if (previous == null) {
+                    buckets[bucket] = next;
+                } else {
+                    previous.next = next;
+                }
+                timeout.next = null;
+                if (!timeout.cancelled) {
+                    try {
+                        timeout.task.run();
+                    } catch (RuntimeException e) {
+                        System.err.println("Timer task failed: " + e);
+                    }
+                }
+            } else {
+                previous = timeout;
+            }
+            timeout = next;
+        }
+    }
+
+    /**
+     * A scheduled task.
+     */
+    static final class Timeout {
+        final Runnable task;
+        final long deadline;
+        long rounds;
+        Timeout next;
+        volatile boolean cancelled;
+
+        Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Prevents the task from running if it has not run yet.
+         */
+        void cancel() {
+            cancelled = true;
+        }
+    }
+}
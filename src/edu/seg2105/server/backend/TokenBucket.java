@@ -0,0 +1,81 @@
+package edu.seg2105.server.backend;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The TokenBucket class enforces a RateLimit using the generic cell rate algorithm, the single-variable form of a
+ * token bucket: it only tracks the theoretical arrival time of the next message and compares it with the clock.
+ * Acquiring is one compare-and-set on that time, so buckets need no locks and allocate nothing.
+ *
+ * @author Onur Onel
+ * oonel101@uottawa.ca
+ */
+final class TokenBucket {
+    private final RateLimit limit;
+    private final AtomicLong arrival = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * Constructs a bucket governed by a limit. The bucket starts full.
+     *
+     * @param limit The limit, possibly shared with other buckets.
+     */
+    TokenBucket(RateLimit limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * Takes a token if one is available.
+     *
+     * @param now The current System.nanoTime.
+     * @return 0 if a token was taken, otherwise the nanoseconds until one becomes available.
+     */
+    long tryAcquire(long now) {
+        long interval = limit.interval();
+        if (interval == 0) {
+            return 0;
+        }
+        long tolerance = limit.tolerance();
+        while (true) {
+            long current = arrival.get();
+            long next = Math.max(current, now) + interval;
+            long wait = next - now - tolerance;
+            if (wait > 0) {
+                return wait;
+            }
+            if (arrival.compareAndSet(current, next)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Gives back a token taken with tryAcquire that went unused, e.g. because another limit refused the message.
+     */
+    void refund() {
+        long interval = limit.interval();
+        if (interval != 0) {
+            arrival.addAndGet(-interval);
+        }
+    }
+
+    /**
+     * Takes a token whether or not one is available, reserving the next one to become free.
+     *
+     * @param now The current System.nanoTime.
+     * @return The nanoseconds the caller must wait before its token is due, 0 if it is due now.
+     */
+    long reserve(long now) {
+        long interval = limit.interval();
+        if (interval == 0) {
+            return 0;
+        }
+        long tolerance = limit.tolerance();
+        while (true) {
+            long current = arrival.get();
+            long next = Math.max(current, now) + interval;
+            if (arrival.compareAndSet(current, next)) {
+                return Math.max(0, next - now - tolerance);
+            }
+        }
+    }
+}
@@ -1,8 +1,15 @@
 package edu.seg2105.server.ui;
 
+import edu.seg2105.client.common.AsyncDisplay;
 import edu.seg2105.client.common.ChatIF;
+import edu.seg2105.client.common.TlsTunnel;
 import edu.seg2105.server.backend.EchoServer;
 
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.Scanner;
 
 /**
@@ -16,8 +23,12 @@ import java.util.Scanner;
 public class ServerConsole implements ChatIF {
 
     public static final int DEFAULT_PORT = 5555;
+    public static final int DEFAULT_REPLAY_COUNT = 50;
+    public static final String TLS_PORT_PROPERTY = "chat.tls.port";
+    public static final String CLUSTER_SECRET_PROPERTY = "chat.cluster.secret";
     EchoServer server;
     Scanner fromConsole;
+    private final AsyncDisplay output = new AsyncDisplay(System.out, "> ");
 
     /**
      * Constructs a ServerConsole with a reference to an EchoServer
@@ -34,7 +45,14 @@ public class ServerConsole implements ChatIF {
     /**
      * The entry point of the server application. Initializes and starts the EchoServer instance.
      *
-     * @param args Optional command-line arguments (port number).
+     * @param args Optional command-line arguments: [port] [journal directory] [node ID] [peers].
+     *             When a journal directory is given, published messages are journaled there and
+     *             the last messages are replayed to clients when they log in; use - for no journal.
+     *             When a node ID and a comma-separated list of peer host:port addresses are given,
+     *             the server joins a cluster with those peers; every node must be given the same secret with
+     *             -Dchat.cluster.secret=[secret].
+     *             With -Dchat.tls.port=[port], TLS connections are also accepted on that port, using the key
+     *             store named by the standard javax.net.ssl.keyStore properties.
      */
     public static void main(String[] args) {
         int port;
@@ -44,11 +62,35 @@ public class ServerConsole implements ChatIF {
             port = DEFAULT_PORT;
         }
         EchoServer server = new EchoServer(port);
+        if (args.length >= 2 && !args[1].equals("-")) {
+            try {
+                server.enableJournal(Paths.get(args[1]), DEFAULT_REPLAY_COUNT);
+            } catch (IOException exception) {
+                System.out.println("ERROR - Could not open journal: " + exception.getMessage());
+            }
+        }
+        if (args.length >= 4) {
+            try {
+                server.enableCluster(args[2], Arrays.asList(args[3].split(",")),
+                        System.getProperty(CLUSTER_SECRET_PROPERTY));
+            } catch (IllegalArgumentException exception) {
+                System.out.println("ERROR - Could not join the cluster: " + exception.getMessage());
+            }
+        }
         try {
             server.listen();
         } catch (Exception exception) {
             System.out.println("ERROR - Could not listen for clients!");
         }
+        String tlsPort = System.getProperty(TLS_PORT_PROPERTY);
+        if (tlsPort != null) {
+            try {
+                TlsTunnel.server(SSLContext.getDefault(), Integer.parseInt(tlsPort), port);
+                System.out.println("Accepting TLS connections on port " + tlsPort);
+            } catch (IOException | NoSuchAlgorithmException | NumberFormatException exception) {
+                System.out.println("ERROR - Could not accept TLS connections: " + exception.getMessage());
+            }
+        }
         ServerConsole console = new ServerConsole(server, new Scanner(System.in));
         server.setServerConsole(console);
         console.accept();
@@ -70,11 +112,12 @@ public class ServerConsole implements ChatIF {
     }
 
     /**
-     * Displays a message to the console.
+     * Displays a message to the console. The line is queued and written in batches by a background thread,
+     * so the network thread calling this never waits on the terminal.
      *
      * @param message The message text to display.
      */
     public void display(String message) {
-        System.out.println("> " + message);
+        output.display(message);
     }
 }
\ No newline at end of file